@@ -0,0 +1,74 @@
+package cn.moerain.visualmidi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against vector kernels at the block sizes the visualizer uses, e.g.
+ * {@code ./gradlew jmh --args="SignalKernelsBenchmark -p size=512"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class SignalKernelsBenchmark {
+    @Param({"128", "512", "4096"})
+    int size;
+
+    @Param({"scalar", "vector"})
+    String kernels;
+
+    private SignalKernels.Impl impl;
+    private float[] a;
+    private float[] b;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        impl = kernels.equals("scalar") ? new ScalarKernels()
+                : (SignalKernels.Impl) Class.forName("cn.moerain.visualmidi.VectorKernels").getDeclaredConstructor().newInstance();
+        Random random = new Random(1);
+        a = new float[size];
+        b = new float[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = (float) random.nextGaussian() * 0.3f;
+            b[i] = (float) random.nextGaussian() * 0.3f;
+        }
+    }
+
+    @Benchmark
+    public float[] accumulate() {
+        impl.accumulate(a, b, size);
+        // keeps the values bounded across invocations
+        impl.clip(a, size);
+        return a;
+    }
+
+    @Benchmark
+    public float peakAbs() {
+        return impl.peakAbs(b, 0, size);
+    }
+
+    @Benchmark
+    public double sumSquares() {
+        return impl.sumSquares(b, 0, size);
+    }
+
+    @Benchmark
+    public double sumAbs() {
+        return impl.sumAbs(b, 0, size);
+    }
+}
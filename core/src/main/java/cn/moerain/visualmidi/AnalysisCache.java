@@ -0,0 +1,227 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Precomputed per-frame, per-channel peak, RMS and band levels for one MIDI file, stored in a
+ * memory-mapped file under {@code ~/.visualmidi/cache} named after the SHA-256 of the MIDI file.
+ * The levels come from an offline pass that replays the {@link Sequence} through a private
+ * {@link MidiVisualizer}, so cached playback of a looping set list costs almost no live synthesis.
+ * <p>
+ * Layout (little endian): an 80-byte header (format, frame rate, sample rate, window, channels, bands,
+ * frame count, the voice caps and steal policy the levels were rendered under, and the file hash), then
+ * {@code frameCount * channels} records of {@code 2 + bands} bytes (peak, RMS, band levels), each level
+ * quantized to 0..255.
+ */
+public final class AnalysisCache {
+    public static final int FRAME_RATE = 60;
+    /** Samples analyzed per frame, about what the meter views look at live. */
+    static final int WINDOW = 512;
+
+    private static final int MAGIC = 0x43414D56; // "VMAC"
+    private static final int FORMAT_VERSION = 3; // 3: voice caps recorded in the header
+    private static final int HEADER_SIZE = 80;
+    private static final int HASH_OFFSET = 48;
+
+    private final MappedByteBuffer data;
+    private final int channels;
+    private final int bands;
+    private final int frameCount;
+    private final int recordSize;
+
+    private AnalysisCache(MappedByteBuffer data, int channels, int bands, int frameCount) {
+        this.data = data;
+        this.channels = channels;
+        this.bands = bands;
+        this.frameCount = frameCount;
+        this.recordSize = 2 + bands;
+    }
+
+    public int getChannelCount() { return channels; }
+
+    public int getFrameCount() { return frameCount; }
+
+    /** Frame covering the given playback position. */
+    public int frameIndex(long micros) {
+        long f = micros * FRAME_RATE / 1_000_000L;
+        return (int) Math.max(0, Math.min(frameCount - 1, f));
+    }
+
+    public float peak(int frame, int ch) {
+        return level(offset(frame, ch));
+    }
+
+    public float rms(int frame, int ch) {
+        return level(offset(frame, ch) + 1);
+    }
+
+    /** Fills out with up to {@code bands} band levels of the given frame and channel. */
+    public void readBands(int frame, int ch, float[] out) {
+        int off = offset(frame, ch) + 2;
+        for (int b = 0, n = Math.min(out.length, bands); b < n; b++) out[b] = level(off + b);
+    }
+
+    private int offset(int frame, int ch) {
+        return HEADER_SIZE + (frame * channels + ch) * recordSize;
+    }
+
+    private float level(int index) {
+        return (data.get(index) & 0xFF) / 255f;
+    }
+
+    /** Where the cache for a file with the given content hash lives. */
+    public static Path cacheFile(byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) name.append(String.format("%02x", b));
+        return Paths.get(System.getProperty("user.home"), ".visualmidi", "cache", name + ".vmac");
+    }
+
+    public static byte[] hash(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Opens the cache for midiFile, running the offline pass over seq first if there is none yet. */
+    public static AnalysisCache loadOrBuild(File midiFile, Sequence seq, int channelCount) throws IOException {
+        byte[] hash = hash(midiFile);
+        Path file = cacheFile(hash);
+        AnalysisCache cache = open(file, hash, channelCount);
+        if (cache == null) {
+            build(seq, channelCount, hash, file);
+            cache = open(file, hash, channelCount);
+        }
+        return cache;
+    }
+
+    /** Maps an existing cache file, or returns null if it is missing or was built differently. */
+    public static AnalysisCache open(Path file, byte[] hash, int channelCount) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (fc.size() < HEADER_SIZE) return null;
+            MappedByteBuffer map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] stored = new byte[32];
+            map.get(HASH_OFFSET, stored);
+            int channels = map.getInt(20);
+            int bands = map.getInt(24);
+            int frames = map.getInt(28);
+            // levels rendered under other caps would not match what plays live
+            if (map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION
+                    || map.getInt(8) != FRAME_RATE || map.getInt(12) != (int) MidiVisualizer.DEFAULT_SAMPLE_RATE
+                    || map.getInt(16) != WINDOW || channels != channelCount || bands != ChannelAnalyzer.BANDS
+                    || map.getInt(32) != MidiVisualizer.configuredMaxVoicesPerChannel()
+                    || map.getInt(36) != MidiVisualizer.configuredMaxVoices()
+                    || map.getInt(40) != MidiVisualizer.configuredStealPolicy().ordinal()
+                    || !Arrays.equals(stored, hash)
+                    || fc.size() != HEADER_SIZE + (long) frames * channels * (2 + bands)) {
+                return null;
+            }
+            return new AnalysisCache(map, channels, bands, frames);
+        }
+    }
+
+    /** Offline pass: replays seq at a fixed frame rate and writes the levels of every frame. */
+    public static void build(Sequence seq, int channelCount, byte[] hash, Path file) throws IOException {
+        List<MidiEvent> events = new ArrayList<>();
+        for (Track track : seq.getTracks()) {
+            for (int i = 0, n = track.size(); i < n; i++) events.add(track.get(i));
+        }
+        events.sort(Comparator.comparingLong(MidiEvent::getTick)); // stable: track order kept within a tick
+
+        TempoMap tempo = TempoMap.of(seq);
+        double lengthMicros = events.isEmpty() ? 0 : tempo.toMicros(events.get(events.size() - 1).getTick());
+        int frameCount = (int) Math.ceil(lengthMicros * FRAME_RATE / 1_000_000.0) + 1;
+        int bands = ChannelAnalyzer.BANDS;
+        int recordSize = 2 + bands;
+        long size = HEADER_SIZE + (long) frameCount * channelCount * recordSize;
+        if (size > Integer.MAX_VALUE) throw new IOException("Sequence too long to cache");
+
+        MidiVisualizer vis = new MidiVisualizer();
+        vis.setChannelCount(channelCount);
+        vis.setSampleRate(MidiVisualizer.DEFAULT_SAMPLE_RATE); // what the header promises, whatever the live setting
+
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "build", ".tmp");
+        try {
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(FRAME_RATE)
+                        .putInt((int) MidiVisualizer.DEFAULT_SAMPLE_RATE).putInt(WINDOW)
+                        .putInt(channelCount).putInt(bands).putInt(frameCount)
+                        .putInt(vis.getMaxVoicesPerChannel()).putInt(vis.getMaxVoices())
+                        .putInt(vis.getStealPolicy().ordinal()).putInt(0).put(hash);
+                writeFully(fc, header.clear());
+
+                float[] wf = new float[WINDOW];
+                float[] bandLevels = new float[bands];
+                byte[] frame = new byte[channelCount * recordSize];
+                ByteBuffer frameBuf = ByteBuffer.wrap(frame);
+                int next = 0;
+                long samplesDone = 0;
+                for (int f = 0; f < frameCount; f++) {
+                    if (Thread.interrupted()) throw new InterruptedIOException("Analysis cancelled");
+                    double frameEnd = (f + 1) * 1_000_000.0 / FRAME_RATE;
+                    while (next < events.size() && tempo.toMicros(events.get(next).getTick()) < frameEnd) {
+                        vis.onMidi(events.get(next++).getMessage(), -1);
+                    }
+                    long sampleEnd = Math.round((f + 1) * MidiVisualizer.DEFAULT_SAMPLE_RATE / FRAME_RATE);
+                    int samples = (int) (sampleEnd - samplesDone);
+                    samplesDone = sampleEnd;
+                    Arrays.fill(frame, (byte) 0);
+                    for (int ch = 0; ch < channelCount; ch++) {
+                        MidiVisualizer.ChannelState state = vis.getChannel(ch);
+                        if (!state.isActive()) continue; // silent: the record stays zero
+                        state.advance(samples);
+                        state.readRecent(wf);
+                        ChannelAnalyzer.computeBands(wf, bandLevels);
+                        int off = ch * recordSize;
+                        frame[off] = quantize(SignalKernels.peakAbs(wf, 0, wf.length));
+                        frame[off + 1] = quantize(SignalKernels.rms(wf, 0, wf.length));
+                        for (int b = 0; b < bands; b++) frame[off + 2 + b] = quantize(bandLevels[b]);
+                    }
+                    writeFully(fc, frameBuf.clear());
+                }
+                fc.force(false);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeFully(FileChannel fc, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) fc.write(buf);
+    }
+
+    private static byte quantize(float v) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, v)) * 255f);
+    }
+}
@@ -0,0 +1,313 @@
+package cn.moerain.visualmidi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Advances and analyzes channels once per view tick and publishes each result atomically as an
+ * immutable {@link ChannelFrame} on the channel state. Channels run in parallel on a bounded
+ * ForkJoinPool; on machines with two cores or fewer, or with {@code -Dvisualmidi.analysisThreads=1},
+ * everything runs sequentially on the calling thread instead.
+ * <p>
+ * When an {@link AnalysisCache} is attached and no view needs the waveform itself, levels are read
+ * from the cache at the current playback position instead of being synthesized live. Views that
+ * draw neither samples nor bands get analytic levels from the voice envelopes, with no synthesis at all.
+ * <p>
+ * With an {@link EnvelopePyramid} attached, every channel analyzed live also records the envelope of
+ * its newest samples at the playback position, so the song overview fills in as it plays.
+ * <p>
+ * {@link LevelSink}s (shared memory, the state stream) are fed by {@link #tickSinks}, which the owner calls
+ * on its own clock so they work without any view: channels a view ticked recently keep the frames it
+ * published, every other channel is kept current on the level-only path (or from the cache), and then
+ * the whole state is handed to each sink.
+ */
+public class ChannelAnalyzer {
+    public static final int BANDS = 20;
+    // below this many channels in a tick the fork/join overhead outweighs the gain
+    private static final int PARALLEL_THRESHOLD = 4;
+    // a view range not ticked for this long is taken as gone, and the sinks analyze every channel themselves
+    private static final long VIEW_STALE_NANOS = 250_000_000L;
+
+    private final MidiVisualizer visualizer;
+    private final ForkJoinPool pool; // null: sequential
+    private volatile int waveformLength = 512;
+    private volatile boolean bandsEnabled = false;
+    private volatile boolean waveformNeeded = true;
+    private volatile AnalysisCache cache;
+    private volatile LongSupplier positionMicros = () -> 0L;
+    private volatile BooleanSupplier playing = () -> true;
+    private volatile EnvelopePyramid overview;
+    private final List<LevelSink> sinks = new CopyOnWriteArrayList<>();
+    // rows the views last ticked and when, for the sinks' ticks; guarded by this
+    private int viewFirst = 0;
+    private int viewLast = -1;
+    private long viewTickNanos;
+    // per-tick cache lookup, written before the tick's tasks are forked; ticks hold this
+    private AnalysisCache tickCache;
+    private AnalysisCache tickBackgroundCache; // channels outside first..last take levels only
+    private int tickFrame;
+    private int tickFirst;
+    private int tickLast;
+    private EnvelopePyramid tickOverview;
+    private long tickMicros;
+
+    public ChannelAnalyzer(MidiVisualizer visualizer) {
+        this(visualizer, Integer.getInteger("visualmidi.analysisThreads",
+                Runtime.getRuntime().availableProcessors() > 2 ? Runtime.getRuntime().availableProcessors() : 1));
+    }
+
+    public ChannelAnalyzer(MidiVisualizer visualizer, int threads) {
+        this.visualizer = visualizer;
+        this.pool = threads > 1 ? new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("channel-analysis-" + t.getPoolIndex());
+            return t;
+        }, null, false) : null;
+    }
+
+    /** Number of worker threads, 1 when running sequentially. */
+    public int getParallelism() {
+        return pool != null ? pool.getParallelism() : 1;
+    }
+
+    /**
+     * What the active views need: waveform history length, whether band levels are computed and
+     * whether the samples themselves are drawn (cached playback only has levels).
+     */
+    public void configure(int waveformLength, boolean bandsEnabled, boolean waveformNeeded) {
+        this.waveformLength = Math.max(1, waveformLength);
+        this.bandsEnabled = bandsEnabled;
+        this.waveformNeeded = waveformNeeded;
+        // keep just the history the views read; level-only views keep whatever is there, they never read it
+        if (bandsEnabled || waveformNeeded) visualizer.setHistoryLength(this.waveformLength);
+    }
+
+    /** Attaches precomputed levels for the loaded sequence, or detaches them with null. */
+    public void setCache(AnalysisCache cache) {
+        this.cache = cache;
+    }
+
+    public AnalysisCache getCache() {
+        return cache;
+    }
+
+    /** Attaches the whole-song envelope of the loaded sequence, or detaches it with null. */
+    public void setOverview(EnvelopePyramid overview) {
+        this.overview = overview;
+    }
+
+    public EnvelopePyramid getOverview() {
+        return overview;
+    }
+
+    /** Attaches an external consumer of every channel's state, such as a {@link LevelPublisher}; see {@link #tickSinks}. */
+    public void addSink(LevelSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(LevelSink sink) {
+        sinks.remove(sink);
+    }
+
+    public boolean hasSinks() {
+        return !sinks.isEmpty();
+    }
+
+    /**
+     * Playback position used to look up cached frames and place overview samples. Both follow what is
+     * heard, so the visualizer's output latency is taken off it, as it is for live events.
+     */
+    public void setPositionSource(LongSupplier positionMicros) {
+        this.positionMicros = positionMicros;
+    }
+
+    /** Whether playback is running; while it is not, cached levels read as silence, as the output is. */
+    public void setPlayingSource(BooleanSupplier playing) {
+        this.playing = playing;
+    }
+
+    public void tick() {
+        tick(0, visualizer.getChannelCount() - 1);
+    }
+
+    /**
+     * Analyzes channels first..last (inclusive) and returns when all frames are published. Ticks from
+     * several threads (a view and {@link #tickSinks}) take turns.
+     */
+    public synchronized void tick(int first, int last) {
+        visualizer.applyDueEvents();
+        last = Math.min(last, visualizer.getChannelCount() - 1);
+        viewFirst = first;
+        viewLast = last;
+        viewTickNanos = System.nanoTime();
+        if (last < first) return;
+        prepare(first, last, cache != null || overview != null);
+        analyzeRange(first, last + 1);
+    }
+
+    /**
+     * Brings every channel not covered by a recent view tick up to date and hands the state to the
+     * sinks. Does nothing without sinks; call from one thread at a steady rate.
+     */
+    public synchronized void tickSinks() {
+        if (sinks.isEmpty()) return;
+        visualizer.applyDueEvents();
+        int count = visualizer.getChannelCount();
+        boolean viewed = viewLast >= viewFirst && System.nanoTime() - viewTickNanos < VIEW_STALE_NANOS;
+        int first = viewed ? viewFirst : count;
+        int last = viewed ? Math.min(viewLast, count - 1) : count - 1;
+        prepare(first, last, true);
+        // the viewed rows' frames are at most a view tick old, the rest are brought up to date here
+        analyzeRange(0, Math.min(first, count));
+        analyzeRange(Math.max(0, last + 1), count);
+        for (LevelSink sink : sinks) sink.publish(visualizer, tickMicros);
+    }
+
+    // Sets up the per-tick lookups; channels first..last get the views' analysis, the rest levels only
+    private void prepare(int first, int last, boolean needsPosition) {
+        AnalysisCache c = cache;
+        tickOverview = overview;
+        tickMicros = needsPosition ? heardMicros(positionMicros.getAsLong()) : 0L;
+        tickCache = waveformNeeded ? null : c;
+        tickBackgroundCache = c;
+        tickFrame = c != null && playing.getAsBoolean() ? c.frameIndex(tickMicros) : -1; // -1: stopped
+        tickFirst = first;
+        tickLast = last;
+    }
+
+    // What the output is playing while the sequencer is at positionMicros
+    private long heardMicros(long positionMicros) {
+        return Math.max(0L, positionMicros - visualizer.getOutputLatencyMicros());
+    }
+
+    private void analyzeRange(int from, int to) {
+        if (from >= to) return;
+        if (pool == null || to - from < PARALLEL_THRESHOLD) {
+            for (int ch = from; ch < to; ch++) analyze(ch);
+        } else {
+            pool.invoke(new AnalyzeRange(from, to));
+        }
+    }
+
+    private final class AnalyzeRange extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        AnalyzeRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 2) {
+                for (int ch = from; ch < to; ch++) analyze(ch);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AnalyzeRange(from, mid), new AnalyzeRange(mid, to));
+        }
+    }
+
+    private void analyze(int ch) {
+        MidiVisualizer.ChannelState state = visualizer.getChannel(ch);
+        ChannelFrame prev = state.getFrame();
+        if (ch < tickFirst || ch > tickLast) {
+            AnalysisCache bc = tickBackgroundCache;
+            if (bc != null && ch < bc.getChannelCount()) analyzeCached(state, prev, bc, tickFrame, ch);
+            else analyzeLevels(state, prev, ch);
+            return;
+        }
+        AnalysisCache c = tickCache;
+        if (c != null && ch < c.getChannelCount()) {
+            analyzeCached(state, prev, c, tickFrame, ch);
+            return;
+        }
+        boolean bands = bandsEnabled;
+        if (!bands && !waveformNeeded) {
+            analyzeLevels(state, prev, ch);
+            return;
+        }
+        int length = Math.min(waveformLength, state.getHistoryLength());
+        // silent, unchanged channels keep their last frame and cost nothing
+        if (!state.isActive() && prev.version() == state.getVersion()
+                && prev.waveform().length == length && (prev.bands() != null) == bands) {
+            return;
+        }
+        int version = state.getVersion();
+        float[] wf = state.getRecentWaveform(length);
+        float[] bandLevels = null;
+        if (bands) {
+            bandLevels = new float[BANDS];
+            computeBands(wf, bandLevels);
+        }
+        EnvelopePyramid o = tickOverview;
+        if (o != null) o.record(ch, tickMicros, wf, (int) (visualizer.getSampleRate() / 60));
+        state.publish(new ChannelFrame(version, wf, SignalKernels.peakAbs(wf, 0, wf.length),
+                SignalKernels.rms(wf, 0, wf.length), bandLevels));
+    }
+
+    private void analyzeLevels(MidiVisualizer.ChannelState state, ChannelFrame prev, int ch) {
+        int version = state.getVersion();
+        if (!state.isActive() && prev.version() == version && prev.waveform().length == 0 && prev.bands() == null) {
+            return;
+        }
+        float[] levels = new float[2];
+        state.advanceLevels(levels);
+        EnvelopePyramid o = tickOverview;
+        if (o != null) o.record(ch, tickMicros, -levels[0], levels[0]);
+        if (prev.version() == version && prev.peak() == levels[0] && prev.rms() == levels[1]
+                && prev.waveform().length == 0 && prev.bands() == null) {
+            return;
+        }
+        state.publish(new ChannelFrame(version, ChannelFrame.EMPTY.waveform(), levels[0], levels[1], null));
+    }
+
+    private void analyzeCached(MidiVisualizer.ChannelState state, ChannelFrame prev, AnalysisCache c, int frame, int ch) {
+        // the cache has the whole song; a muted channel, or any channel while stopped, shows what is heard: nothing
+        boolean audible = frame >= 0 && visualizer.isAudible(ch);
+        float peak = audible ? c.peak(frame, ch) : 0f;
+        float rms = audible ? c.rms(frame, ch) : 0f;
+        float[] bandLevels = null;
+        if (bandsEnabled) {
+            bandLevels = new float[BANDS];
+            if (audible) c.readBands(frame, ch, bandLevels);
+        }
+        // publish only real changes so the views keep skipping unchanged rows
+        if (prev.peak() == peak && prev.rms() == rms && prev.waveform().length == 0
+                && Arrays.equals(prev.bands(), bandLevels)) {
+            return;
+        }
+        state.publish(new ChannelFrame(state.getVersion(), ChannelFrame.EMPTY.waveform(), peak, rms, bandLevels));
+    }
+
+    // Analyze into bands using a simple bank of rectified moving-average windows at different scales.
+    // This mimics low-to-high frequency bands roughly exponentially spaced.
+    static void computeBands(float[] wf, float[] out) {
+        if (wf.length == 0) return;
+        for (int b = 0; b < out.length; b++) {
+            // window size grows smaller for higher bands
+            double t = b / (double) (out.length - 1);
+            int win = (int) (wf.length * (0.25 * Math.pow(0.5, t))); // from ~25% down to small
+            if (win < 4) win = 4;
+            // compute average rectified energy over sliding window samples
+            int step = Math.max(1, win / 4);
+            double maxAvg = 0;
+            for (int i = 0; i + win <= wf.length; i += step) {
+                double avg = SignalKernels.sumAbs(wf, i, win) / win;
+                if (avg > maxAvg) maxAvg = avg;
+            }
+            out[b] = (float) Math.min(1.0, maxAvg * 1.5); // boost a bit
+        }
+    }
+
+    public void close() {
+        if (pool != null) pool.shutdown();
+    }
+}
@@ -0,0 +1,15 @@
+package cn.moerain.visualmidi;
+
+/**
+ * Immutable result of one analysis tick for one channel, published by {@link ChannelAnalyzer}.
+ * Views only read frames, so a frame is never modified after it has been published.
+ *
+ * @param version   {@link MidiVisualizer.ChannelState#getVersion()} the frame was computed at
+ * @param waveform  most recent samples, oldest first
+ * @param peak      peak absolute level of the waveform
+ * @param rms       RMS level of the waveform
+ * @param bands     pseudo-spectrum band levels in [0, 1], or null when no view asked for them
+ */
+public record ChannelFrame(int version, float[] waveform, float peak, float rms, float[] bands) {
+    public static final ChannelFrame EMPTY = new ChannelFrame(-1, new float[0], 0f, 0f, null);
+}
@@ -0,0 +1,281 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Batch triage of a MIDI corpus: scans a directory tree and reports per file the duration, note
+ * count, max polyphony, peak notes per second, channels and programs used, as CSV or JSON.
+ * <p>
+ * Files are parsed in parallel, with at most a few files per worker in flight, and each file is
+ * walked in place (tracks merged by tick, ports followed per track as {@link MidiPorts#tagPorts}
+ * does), so memory stays at about the parsed sequences being worked on. Files over
+ * {@code --max-bytes} are skipped, and a file that fails to parse is reported with its error
+ * instead of stopping the run.
+ * <p>
+ * Usage: {@code CorpusAnalyzer <dir> [--format csv|json] [--out file] [--threads n] [--max-bytes n]},
+ * or {@code ./gradlew analyzeCorpus --args="..."}.
+ */
+public final class CorpusAnalyzer {
+    private static final String[] COLUMNS = {"file", "bytes", "tracks", "ports", "channels", "notes",
+            "duration_s", "max_polyphony", "peak_notes_per_s", "programs", "error"};
+    // notes per second are counted in a sliding one-second window of this many buckets
+    private static final int RATE_BUCKETS = 10;
+
+    /** Statistics of one file; {@code error} is set, and the rest zero, if it could not be read. */
+    public record Result(Path file, long bytes, int tracks, int ports, int channels, long notes,
+                         double durationSeconds, int maxPolyphony, int peakNotesPerSecond, String programs,
+                         String error) {
+    }
+
+    private CorpusAnalyzer() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) opts.put(args[i].substring(2), args[++i]);
+            else dir = args[i];
+        }
+        if (dir == null) {
+            System.err.println("Usage: CorpusAnalyzer <dir> [--format csv|json] [--out file] [--threads n] [--max-bytes n]");
+            System.exit(2);
+        }
+        boolean json = "json".equalsIgnoreCase(opts.getOrDefault("format", "csv"));
+        int threads = Integer.parseInt(opts.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long maxBytes = Long.parseLong(opts.getOrDefault("max-bytes", String.valueOf(64L << 20)));
+        String out = opts.get("out");
+
+        long start = System.nanoTime();
+        try (Writer w = new BufferedWriter(out != null
+                ? Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            ResultWriter results = new ResultWriter(w, json);
+            int[] counts = scan(Paths.get(dir), Math.max(1, threads), maxBytes, results);
+            results.finish();
+            System.err.printf(Locale.ROOT, "Analyzed %d files (%d failed) in %.1f s%n",
+                    counts[0], counts[1], (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /** Analyzes every .mid/.midi file under root and hands each result to sink; returns {files, failed}. */
+    public static int[] scan(Path root, int threads, long maxBytes, ResultWriter sink) throws IOException, InterruptedException {
+        // a short queue and caller-runs keep the directory walk from racing ahead of the workers
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 2), r -> {
+                    Thread t = new Thread(r, "corpus-analyzer");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicInteger files = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(CorpusAnalyzer::isMidiFile).forEach(p -> pool.execute(() -> {
+                Result r = analyze(p, maxBytes);
+                files.incrementAndGet();
+                if (r.error() != null) failed.incrementAndGet();
+                sink.write(r);
+            }));
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        return new int[]{files.get(), failed.get()};
+    }
+
+    private static boolean isMidiFile(Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        return (name.endsWith(".mid") || name.endsWith(".midi")) && Files.isRegularFile(p);
+    }
+
+    /** Analyzes one file; never throws, failures come back as a result with {@code error} set. */
+    public static Result analyze(Path file, long maxBytes) {
+        long bytes = 0;
+        try {
+            bytes = Files.size(file);
+            if (bytes > maxBytes) return failure(file, bytes, "larger than " + maxBytes + " bytes, skipped");
+            return analyze(file, bytes, MidiSystem.getSequence(file.toFile()));
+        } catch (Exception | OutOfMemoryError | StackOverflowError e) {
+            // a malformed file must not take the whole run down
+            String msg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return failure(file, bytes, msg);
+        }
+    }
+
+    private static Result failure(Path file, long bytes, String error) {
+        return new Result(file, bytes, 0, 0, 0, 0, 0, 0, 0, "", error);
+    }
+
+    static Result analyze(Path file, long bytes, Sequence seq) {
+        Track[] tracks = seq.getTracks();
+        int maxChannels = MidiPorts.MAX_PORTS * MidiVisualizer.CHANNELS_PER_PORT;
+        int[] sounding = new int[maxChannels * 128]; // key stacking: a key can be struck again before it is released
+        boolean[] channelUsed = new boolean[maxChannels];
+        boolean[] programUsed = new boolean[128];
+        int[] trackPort = new int[tracks.length];
+        int[] buckets = new int[RATE_BUCKETS];
+        long bucket = 0;
+        int windowNotes = 0, peakRate = 0;
+        int polyphony = 0, maxPolyphony = 0, maxPort = 0;
+        long notes = 0;
+        double lastMicros = 0;
+
+        // k-way merge of the tracks by tick; within a tick, lower track indexes first like the sequencer
+        int[] pos = new int[tracks.length];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int c = Long.compare(tracks[a].get(pos[a]).getTick(), tracks[b].get(pos[b]).getTick());
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (int t = 0; t < tracks.length; t++) if (tracks[t].size() > 0) queue.add(t);
+        TempoMap tempo = TempoMap.of(seq);
+        while (!queue.isEmpty()) {
+            int t = queue.poll();
+            MidiEvent ev = tracks[t].get(pos[t]++);
+            if (pos[t] < tracks[t].size()) queue.add(t);
+            long micros = tempo.toMicros(ev.getTick());
+            lastMicros = Math.max(lastMicros, micros);
+            MidiMessage msg = ev.getMessage();
+            if (msg instanceof MetaMessage meta && meta.getType() == MidiPorts.META_PORT) {
+                trackPort[t] = MidiPorts.portValue(meta);
+                continue;
+            }
+            if (!(msg instanceof ShortMessage sm) || sm.getCommand() >= 0xF0) continue;
+            int ch = trackPort[t] * MidiVisualizer.CHANNELS_PER_PORT + sm.getChannel();
+            maxPort = Math.max(maxPort, trackPort[t]);
+            channelUsed[ch] = true;
+            int cmd = sm.getCommand();
+            int key = ch * 128 + sm.getData1();
+            if (cmd == ShortMessage.NOTE_ON && sm.getData2() > 0) {
+                notes++;
+                sounding[key]++;
+                maxPolyphony = Math.max(maxPolyphony, ++polyphony);
+                // slide the one-second window forward to this note's bucket
+                long b = (long) (micros * RATE_BUCKETS / 1_000_000.0);
+                if (b - bucket >= RATE_BUCKETS) {
+                    Arrays.fill(buckets, 0);
+                    windowNotes = 0;
+                } else {
+                    for (long k = bucket + 1; k <= b; k++) {
+                        windowNotes -= buckets[(int) (k % RATE_BUCKETS)];
+                        buckets[(int) (k % RATE_BUCKETS)] = 0;
+                    }
+                }
+                bucket = Math.max(bucket, b);
+                buckets[(int) (bucket % RATE_BUCKETS)]++;
+                peakRate = Math.max(peakRate, ++windowNotes);
+            } else if (cmd == ShortMessage.NOTE_OFF || cmd == ShortMessage.NOTE_ON) {
+                if (sounding[key] > 0) {
+                    sounding[key]--;
+                    polyphony--;
+                }
+            } else if (cmd == ShortMessage.PROGRAM_CHANGE) {
+                programUsed[sm.getData1()] = true;
+            }
+        }
+
+        int channels = 0;
+        for (boolean used : channelUsed) if (used) channels++;
+        StringBuilder programs = new StringBuilder();
+        for (int p = 0; p < 128; p++) {
+            if (programUsed[p]) programs.append(programs.length() > 0 ? " " : "").append(p);
+        }
+        return new Result(file, bytes, tracks.length, maxPort + 1, channels, notes, lastMicros / 1e6,
+                maxPolyphony, peakRate, programs.toString(), null);
+    }
+
+    /** Streams results as CSV rows or the elements of one JSON array; safe to call from several threads. */
+    public static final class ResultWriter {
+        private final Writer out;
+        private final boolean json;
+        private boolean first = true;
+
+        public ResultWriter(Writer out, boolean json) throws IOException {
+            this.out = out;
+            this.json = json;
+            if (json) {
+                out.write("[");
+            } else {
+                out.write(String.join(",", COLUMNS));
+                out.write("\n");
+            }
+        }
+
+        public synchronized void write(Result r) {
+            Object[] values = {r.file().toString(), r.bytes(), r.tracks(), r.ports(), r.channels(), r.notes(),
+                    Math.round(r.durationSeconds() * 1000) / 1000.0, r.maxPolyphony(),
+                    r.peakNotesPerSecond(), r.programs(), r.error()};
+            StringBuilder sb = new StringBuilder();
+            if (json) {
+                sb.append(first ? "\n  {" : ",\n  {");
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append('"').append(COLUMNS[i]).append("\": ");
+                    Object v = values[i];
+                    if (v == null) sb.append("null");
+                    else if (v instanceof String s) sb.append('"').append(jsonEscape(s)).append('"');
+                    else sb.append(v);
+                }
+                sb.append('}');
+            } else {
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    if (i > 0) sb.append(',');
+                    if (values[i] != null) sb.append(csvEscape(values[i].toString()));
+                }
+                sb.append('\n');
+            }
+            first = false;
+            try {
+                out.write(sb.toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public synchronized void finish() throws IOException {
+            if (json) out.write(first ? "]\n" : "\n]\n");
+            out.flush();
+        }
+
+        private static String csvEscape(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+
+        private static String jsonEscape(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
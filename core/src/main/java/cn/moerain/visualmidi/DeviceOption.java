@@ -0,0 +1,119 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MidiDevice;
+
+import java.util.Locale;
+
+/**
+ * An output to play through. For the software synth it also carries how the synth is opened: line
+ * buffer, synth latency, sample rate, polyphony and interpolation, each 0 or null for the synth's own
+ * default. {@link #softwareSynth()} starts from the {@code visualmidi.synth.*} system properties so a
+ * deployment can pin the settings it measured with {@link LatencyProbe}.
+ */
+public class DeviceOption {
+    public enum Type { SOFTWARE_SYNTH, HARDWARE }
+    /** Resampling of instrument samples, cheapest first. */
+    public enum Interpolation { POINT, LINEAR, CUBIC, LANCZOS, SINC }
+    /** Output latency value meaning "ask the device" (the software synth reports its buffer latency). */
+    public static final long AUTO_LATENCY = -1;
+    private final Type type;
+    private final MidiDevice.Info info; // for hardware
+    private final long latencyMicros;
+    // software synth only
+    private final int bufferFrames;
+    private final long synthLatencyMicros;
+    private final float sampleRate;
+    private final int maxPolyphony;
+    private final Interpolation interpolation;
+
+    private DeviceOption(Type type, MidiDevice.Info info, long latencyMicros, int bufferFrames, long synthLatencyMicros,
+                         float sampleRate, int maxPolyphony, Interpolation interpolation) {
+        this.type = type;
+        this.info = info;
+        this.latencyMicros = latencyMicros;
+        this.bufferFrames = bufferFrames;
+        this.synthLatencyMicros = synthLatencyMicros;
+        this.sampleRate = sampleRate;
+        this.maxPolyphony = maxPolyphony;
+        this.interpolation = interpolation;
+    }
+
+    public static DeviceOption softwareSynth() {
+        String interp = System.getProperty("visualmidi.synth.interpolation");
+        return new DeviceOption(Type.SOFTWARE_SYNTH, null, AUTO_LATENCY,
+                Integer.getInteger("visualmidi.synth.bufferFrames", 0),
+                Long.getLong("visualmidi.synth.latency", 0L) * 1000,
+                Float.parseFloat(System.getProperty("visualmidi.synth.sampleRate", "0")),
+                Integer.getInteger("visualmidi.synth.polyphony", 0),
+                interp != null ? Interpolation.valueOf(interp.toUpperCase(Locale.ROOT)) : null);
+    }
+
+    public static DeviceOption hardware(MidiDevice.Info info) {
+        return new DeviceOption(Type.HARDWARE, info, AUTO_LATENCY, 0, 0, 0, 0, null);
+    }
+
+    /** The same device with a fixed output latency, or {@link #AUTO_LATENCY}. */
+    public DeviceOption withLatencyMicros(long latencyMicros) {
+        return new DeviceOption(type, info, latencyMicros < 0 ? AUTO_LATENCY : latencyMicros,
+                bufferFrames, synthLatencyMicros, sampleRate, maxPolyphony, interpolation);
+    }
+
+    /** Size of the audio line buffer in frames; 0 sizes it from the synth latency. */
+    public DeviceOption withBufferFrames(int frames) {
+        return new DeviceOption(type, info, latencyMicros, Math.max(0, frames), synthLatencyMicros,
+                sampleRate, maxPolyphony, interpolation);
+    }
+
+    /** The synth's own latency setting (120 ms by default), which also sizes the line when no buffer is set. */
+    public DeviceOption withSynthLatencyMicros(long micros) {
+        return new DeviceOption(type, info, latencyMicros, bufferFrames, Math.max(0, micros),
+                sampleRate, maxPolyphony, interpolation);
+    }
+
+    public DeviceOption withSampleRate(float hz) {
+        return new DeviceOption(type, info, latencyMicros, bufferFrames, synthLatencyMicros,
+                Math.max(0, hz), maxPolyphony, interpolation);
+    }
+
+    public DeviceOption withMaxPolyphony(int voices) {
+        return new DeviceOption(type, info, latencyMicros, bufferFrames, synthLatencyMicros,
+                sampleRate, Math.max(0, voices), interpolation);
+    }
+
+    public DeviceOption withInterpolation(Interpolation interpolation) {
+        return new DeviceOption(type, info, latencyMicros, bufferFrames, synthLatencyMicros,
+                sampleRate, maxPolyphony, interpolation);
+    }
+
+    public int getBufferFrames() { return bufferFrames; }
+
+    public long getSynthLatencyMicros() { return synthLatencyMicros; }
+
+    public float getSampleRate() { return sampleRate; }
+
+    public int getMaxPolyphony() { return maxPolyphony; }
+
+    public Interpolation getInterpolation() { return interpolation; }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public MidiDevice.Info getInfo() {
+        return info;
+    }
+
+    public String getDisplayName() {
+        if (type == Type.SOFTWARE_SYNTH) return "Java Software Synth";
+        return info.getName() + " - " + info.getDescription();
+    }
+
+    @Override
+    public String toString() {
+        return getDisplayName();
+    }
+}
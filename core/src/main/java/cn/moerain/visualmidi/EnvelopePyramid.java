@@ -0,0 +1,163 @@
+package cn.moerain.visualmidi;
+
+/**
+ * Whole-song min/max envelope of every channel as a mipmap pyramid: level 0 holds one min/max pair
+ * per base bin, each level above merges two bins of the one below. A query for any time span and
+ * pixel width reads the coarsest level whose bins are still no wider than a pixel, so it costs
+ * O(pixels) whatever the zoom.
+ * <p>
+ * Bins are filled incrementally by {@link ChannelAnalyzer} as the song plays, and all at once from an
+ * {@link AnalysisCache} once the offline pass is done. Levels are stored quantized to one signed
+ * byte each and the base bin width is chosen so the whole pyramid fits in a fixed memory budget
+ * ({@code -Dvisualmidi.overviewBudget}, bytes). Writers and readers do not lock; a reader may see a
+ * bin a frame late, which an overview can afford.
+ */
+public final class EnvelopePyramid {
+    /** Finest bin width when the budget allows it. */
+    public static final long MIN_BIN_MICROS = 10_000;
+    private static final long DEFAULT_BUDGET = 8L << 20;
+
+    private final int channels;
+    private final long lengthMicros;
+    private final long binMicros; // level 0
+    private final int[] bins; // per level
+    private final byte[][] min; // [level][channel * bins[level] + bin]
+    private final byte[][] max;
+
+    public EnvelopePyramid(int channels, long lengthMicros) {
+        this(channels, lengthMicros, Long.getLong("visualmidi.overviewBudget", DEFAULT_BUDGET));
+    }
+
+    public EnvelopePyramid(int channels, long lengthMicros, long budgetBytes) {
+        this.channels = Math.max(1, channels);
+        this.lengthMicros = Math.max(1, lengthMicros);
+        // a pyramid holds just under twice its base level, at two bytes (min, max) per bin
+        long maxBaseBins = Math.max(1, budgetBytes / (4L * this.channels));
+        long binMicros = MIN_BIN_MICROS;
+        while ((this.lengthMicros + binMicros - 1) / binMicros > maxBaseBins) binMicros *= 2;
+        this.binMicros = binMicros;
+
+        int levels = 1;
+        for (long n = (this.lengthMicros + binMicros - 1) / binMicros; n > 1; n = (n + 1) / 2) levels++;
+        bins = new int[levels];
+        min = new byte[levels][];
+        max = new byte[levels][];
+        int n = (int) ((this.lengthMicros + binMicros - 1) / binMicros);
+        for (int l = 0; l < levels; l++) {
+            bins[l] = n;
+            min[l] = new byte[this.channels * n];
+            max[l] = new byte[this.channels * n];
+            n = (n + 1) / 2;
+        }
+    }
+
+    public int getChannelCount() { return channels; }
+
+    public long getLengthMicros() { return lengthMicros; }
+
+    /** Width of a level-0 bin; the budget decides how fine it can be. */
+    public long getBinMicros() { return binMicros; }
+
+    public int getLevelCount() { return bins.length; }
+
+    /** Memory held by the bins. */
+    public long sizeBytes() {
+        long total = 0;
+        for (int n : bins) total += 2L * channels * n;
+        return total;
+    }
+
+    /** Merges a min/max pair (in -1..1) into the bin covering micros on every level. */
+    public void record(int ch, long micros, float lo, float hi) {
+        if (ch < 0 || ch >= channels || micros < 0 || micros >= lengthMicros) return;
+        byte qlo = quantize(lo), qhi = quantize(hi);
+        int bin = (int) (micros / binMicros);
+        for (int l = 0; l < bins.length; l++, bin >>= 1) {
+            int i = ch * bins[l] + bin;
+            if (qlo < min[l][i]) min[l][i] = qlo;
+            if (qhi > max[l][i]) max[l][i] = qhi;
+        }
+    }
+
+    /** Merges the extremes of the last count samples of wf. */
+    public void record(int ch, long micros, float[] wf, int count) {
+        float lo = 0f, hi = 0f;
+        for (int i = Math.max(0, wf.length - count); i < wf.length; i++) {
+            float v = wf[i];
+            if (v < lo) lo = v;
+            if (v > hi) hi = v;
+        }
+        record(ch, micros, lo, hi);
+    }
+
+    /**
+     * Merges the cached peak level of every frame (an envelope symmetric around zero, since the cache
+     * keeps levels only) and rebuilds the upper levels in one pass. Returns early if interrupted.
+     */
+    public void fill(AnalysisCache cache) {
+        int chs = Math.min(channels, cache.getChannelCount());
+        byte[] lo0 = min[0], hi0 = max[0];
+        int n0 = bins[0];
+        for (int f = 0; f < cache.getFrameCount(); f++) {
+            if ((f & 1023) == 0 && Thread.currentThread().isInterrupted()) return;
+            long micros = f * 1_000_000L / AnalysisCache.FRAME_RATE;
+            if (micros >= lengthMicros) break;
+            int bin = (int) (micros / binMicros);
+            for (int ch = 0; ch < chs; ch++) {
+                float p = cache.peak(f, ch);
+                if (p == 0f) continue;
+                byte qlo = quantize(-p), qhi = quantize(p);
+                int i = ch * n0 + bin;
+                if (qlo < lo0[i]) lo0[i] = qlo;
+                if (qhi > hi0[i]) hi0[i] = qhi;
+            }
+        }
+        for (int l = 1; l < bins.length; l++) {
+            int n = bins[l], below = bins[l - 1];
+            for (int ch = 0; ch < channels; ch++) {
+                for (int b = 0; b < n; b++) {
+                    int c0 = ch * below + 2 * b, c1 = 2 * b + 1 < below ? c0 + 1 : c0;
+                    int i = ch * n + b;
+                    min[l][i] = (byte) Math.min(min[l][i], Math.min(min[l - 1][c0], min[l - 1][c1]));
+                    max[l][i] = (byte) Math.max(max[l][i], Math.max(max[l - 1][c0], max[l - 1][c1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Envelope of channel ch between fromMicros and toMicros, one min/max pair per pixel written to
+     * outMin/outMax (-1..1, length at least pixels). Pixels beyond the song are left at zero.
+     */
+    public void query(int ch, long fromMicros, long toMicros, int pixels, float[] outMin, float[] outMax) {
+        if (pixels <= 0) return;
+        double pixelMicros = Math.max(1.0, (toMicros - fromMicros) / (double) pixels);
+        // coarsest level whose bins are no wider than a pixel: each pixel merges at most three bins
+        int level = 0;
+        while (level + 1 < bins.length && (binMicros << (level + 1)) <= pixelMicros) level++;
+        long width = binMicros << level;
+        int n = bins[level];
+        byte[] lo = min[level], hi = max[level];
+        boolean valid = ch >= 0 && ch < channels;
+        for (int p = 0; p < pixels; p++) {
+            long start = fromMicros + (long) (p * pixelMicros);
+            long end = fromMicros + (long) ((p + 1) * pixelMicros);
+            int b0 = (int) Math.max(0, Math.floorDiv(start, width));
+            int b1 = (int) Math.min(n - 1, Math.max(b0, Math.floorDiv(end - 1, width)));
+            byte mn = 0, mx = 0;
+            if (valid && start < lengthMicros && end > 0) {
+                for (int b = b0; b <= b1; b++) {
+                    int i = ch * n + b;
+                    if (lo[i] < mn) mn = lo[i];
+                    if (hi[i] > mx) mx = hi[i];
+                }
+            }
+            outMin[p] = mn / 127f;
+            outMax[p] = mx / 127f;
+        }
+    }
+
+    private static byte quantize(float v) {
+        return (byte) Math.round(Math.max(-1f, Math.min(1f, v)) * 127f);
+    }
+}
@@ -0,0 +1,129 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the software synth's output: event-to-audio latency of single loud notes sent into silence,
+ * timed by {@link MeasuredLine} against the device's play position, and underruns under a dense load.
+ * <p>
+ * Run as a program it sweeps line buffer sizes and recommends the smallest that stayed free of
+ * underruns, e.g. {@code ./gradlew measureLatency --args="--buffers 256,512,1024 --load 5"}; the
+ * result goes into {@code -Dvisualmidi.synth.bufferFrames}.
+ */
+public final class LatencyProbe {
+    private static final int PROBE_CHANNEL = 15;
+    private static final int PROBE_NOTE = 69;
+
+    /** Latencies in microseconds over the notes that were heard; timed counts those. */
+    public record Result(long minMicros, long medianMicros, long maxMicros, int timed, int probes,
+                         long underruns, long bufferMicros) {}
+
+    private LatencyProbe() {}
+
+    /** Times probes note-ons, one at a time, each after the output has gone quiet. */
+    public static Result measure(Synthesizer synth, MeasuredLine line, int probes) throws InvalidMidiDataException, MidiUnavailableException, InterruptedException {
+        Receiver r = synth.getReceiver();
+        long underrunsBefore = line.getUnderruns();
+        // long enough for everything queued to play out, so the next onset starts from silence
+        long quietMillis = line.getBufferMicros() / 1000 * 2 + 50;
+        r.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, PROBE_CHANNEL, 0, 0), -1);
+        long[] latencies = new long[probes];
+        int timed = 0;
+        for (int i = 0; i < probes; i++) {
+            r.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, PROBE_CHANNEL, 120, 0), -1); // all sound off
+            Thread.sleep(quietMillis);
+            long sent = System.nanoTime();
+            line.arm(sent);
+            r.send(new ShortMessage(ShortMessage.NOTE_ON, PROBE_CHANNEL, PROBE_NOTE, 127), -1);
+            long nanos = line.awaitOnset(1000 + quietMillis);
+            r.send(new ShortMessage(ShortMessage.NOTE_OFF, PROBE_CHANNEL, PROBE_NOTE, 0), -1);
+            if (nanos >= 0) latencies[timed++] = nanos / 1000;
+        }
+        r.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, PROBE_CHANNEL, 120, 0), -1);
+        Arrays.sort(latencies, 0, timed);
+        return new Result(timed > 0 ? latencies[0] : -1, timed > 0 ? latencies[timed / 2] : -1,
+                timed > 0 ? latencies[timed - 1] : -1, timed, probes, line.getUnderruns() - underrunsBefore,
+                line.getBufferMicros());
+    }
+
+    /** Plays a dense random texture for the given time and returns the underruns it caused. */
+    public static long load(Synthesizer synth, MeasuredLine line, long millis, int voices) throws InvalidMidiDataException, MidiUnavailableException, InterruptedException {
+        Receiver r = synth.getReceiver();
+        Random random = new Random(1);
+        long before = line.getUnderruns();
+        int[] sounding = new int[voices];
+        Arrays.fill(sounding, -1);
+        long end = System.currentTimeMillis() + millis;
+        for (int i = 0; System.currentTimeMillis() < end; i = (i + 1) % voices) {
+            int ch = i % 8;
+            if (sounding[i] >= 0) r.send(new ShortMessage(ShortMessage.NOTE_OFF, ch, sounding[i], 0), -1);
+            sounding[i] = 36 + random.nextInt(60);
+            r.send(new ShortMessage(ShortMessage.NOTE_ON, ch, sounding[i], 60 + random.nextInt(60)), -1);
+            Thread.sleep(2);
+        }
+        for (int ch = 0; ch < 8; ch++) r.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, ch, 120, 0), -1);
+        return line.getUnderruns() - before;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> buffers = List.of(256, 512, 1024, 2048, 4096);
+        int probes = 8;
+        long loadMillis = 3000;
+        int voices = 48;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--buffers" -> {
+                    List<Integer> b = new ArrayList<>();
+                    for (String v : args[++i].split(",")) b.add(Integer.parseInt(v.trim()));
+                    buffers = b;
+                }
+                case "--probes" -> probes = Integer.parseInt(args[++i]);
+                case "--load" -> loadMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+                case "--voices" -> voices = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("usage: LatencyProbe [--buffers 256,512,...] [--probes n] [--load seconds] [--voices n]");
+                    System.exit(2);
+                }
+            }
+        }
+        DeviceOption base = DeviceOption.softwareSynth();
+        System.out.printf(Locale.ROOT, "%8s %9s %9s %9s %9s %7s %10s%n",
+                "frames", "buffer ms", "min ms", "median ms", "max ms", "timed", "underruns");
+        int best = -1;
+        for (int frames : buffers) {
+            Synthesizer synth = MidiSystem.getSynthesizer();
+            MeasuredLine line = MidiEngine.openSoftwareSynth(synth, base.withBufferFrames(frames), false);
+            if (line == null) {
+                System.err.println("Cannot measure without the synth settings; run with --add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED");
+                synth.close();
+                System.exit(1);
+            }
+            try {
+                Result res = measure(synth, line, probes);
+                long underruns = res.underruns() + load(synth, line, loadMillis, voices);
+                System.out.printf(Locale.ROOT, "%8d %9.1f %9.1f %9.1f %9.1f %4d/%-2d %10d%n", frames,
+                        res.bufferMicros() / 1000.0, res.minMicros() / 1000.0, res.medianMicros() / 1000.0,
+                        res.maxMicros() / 1000.0, res.timed(), res.probes(), underruns);
+                if (underruns == 0 && res.timed() > 0 && (best < 0 || frames < best)) best = frames;
+            } finally {
+                synth.close();
+                line.close();
+            }
+        }
+        if (best > 0) {
+            System.out.println("lowest stable buffer: -Dvisualmidi.synth.bufferFrames=" + best);
+        } else {
+            System.out.println("no buffer size was free of underruns");
+        }
+    }
+}
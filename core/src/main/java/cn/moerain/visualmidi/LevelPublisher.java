@@ -0,0 +1,95 @@
+package cn.moerain.visualmidi;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every channel's live levels, sounding keys and program into a memory-mapped file once per
+ * sink tick, so other local processes (overlays, lighting) can follow the visualization without
+ * sockets or serialization. Read it with {@link LevelReader}.
+ * <p>
+ * Layout, little endian, fixed size:
+ * <pre>
+ *  0  int   magic "VMLV"        16  long  sequence (seqlock)    40  long  position, micros
+ *  4  int   format version      24  long  frame counter         48  int   channels in use
+ *  8  int   channel capacity    32  long  published at, epoch millis
+ * 12  int   record size
+ * 64  one record per channel:  0 float peak, 4 float rms, 8 short program, 10 short voices,
+ *                             12 int flags (1 muted, 2 solo), 16 long keys 0-63, 24 long keys 64-127
+ * </pre>
+ * The sequence is odd while a frame is being written; a reader that sees the same even sequence
+ * before and after copying a frame has a consistent one.
+ */
+public final class LevelPublisher implements LevelSink, AutoCloseable {
+    static final int MAGIC = 0x564C4D56; // "VMLV"
+    static final int FORMAT_VERSION = 1;
+    static final int CAPACITY = MidiPorts.MAX_PORTS * MidiVisualizer.CHANNELS_PER_PORT;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+    static final int SIZE = HEADER_SIZE + CAPACITY * RECORD_SIZE;
+    static final int SEQ = 16, FRAME = 24, TIME = 32, POSITION = 40, CHANNELS = 48;
+    static final int FLAG_MUTED = 1, FLAG_SOLO = 2;
+    // release/acquire access to the sequence word; the buffer is direct, so this is a plain aligned store
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long[] keys = new long[2];
+    private long seq = 0;
+    private long frame = 0;
+
+    public LevelPublisher(Path file) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        // resume a sequence left by an earlier run, so a reader never sees it go backwards
+        seq = (long) LONGS.getAcquire(map, SEQ) + 1 & ~1L;
+        map.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, CAPACITY).putInt(12, RECORD_SIZE);
+    }
+
+    /** Default location, {@code ~/.visualmidi/levels.vmlv}. */
+    public static Path defaultFile() {
+        return Paths.get(System.getProperty("user.home"), ".visualmidi", "levels.vmlv");
+    }
+
+    /** Copies the current state of every channel into the file as one frame. Call from one thread. */
+    @Override
+    public void publish(MidiVisualizer visualizer, long positionMicros) {
+        int count = Math.min(CAPACITY, visualizer.getChannelCount());
+        LONGS.setOpaque(map, SEQ, ++seq); // odd: frame in progress
+        VarHandle.releaseFence();
+        map.putLong(FRAME, ++frame).putLong(TIME, System.currentTimeMillis())
+                .putLong(POSITION, positionMicros).putInt(CHANNELS, count);
+        for (int ch = 0; ch < count; ch++) {
+            MidiVisualizer.ChannelState state = visualizer.getChannel(ch);
+            ChannelFrame f = state.getFrame();
+            state.activeNotes(keys);
+            int flags = (visualizer.isMuted(ch) ? FLAG_MUTED : 0) | (visualizer.isSolo(ch) ? FLAG_SOLO : 0);
+            int off = HEADER_SIZE + ch * RECORD_SIZE;
+            map.putFloat(off, f.peak()).putFloat(off + 4, f.rms())
+                    .putShort(off + 8, (short) state.getProgram())
+                    .putShort(off + 10, (short) Math.min(Short.MAX_VALUE, state.getVoiceCount()))
+                    .putInt(off + 12, flags).putLong(off + 16, keys[0]).putLong(off + 24, keys[1]);
+        }
+        LONGS.setRelease(map, SEQ, ++seq); // even: frame complete
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
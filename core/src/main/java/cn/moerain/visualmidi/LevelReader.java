@@ -0,0 +1,121 @@
+package cn.moerain.visualmidi;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import static cn.moerain.visualmidi.LevelPublisher.*;
+
+/**
+ * Reads the levels a {@link LevelPublisher} exports, from any process on the same machine. Frames are
+ * copied into a reusable {@link Snapshot}, so polling allocates nothing.
+ * <p>
+ * Run as a program it prints the sounding channels once a second:
+ * {@code LevelReader [file]}, or {@code ./gradlew readLevels}.
+ */
+public final class LevelReader implements AutoCloseable {
+    private static final int MAX_ATTEMPTS = 1000;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    /** One consistent frame. Arrays are indexed by channel and sized for the full capacity. */
+    public static final class Snapshot {
+        public long frame;
+        public long publishedAtMillis;
+        public long positionMicros;
+        public int channels;
+        public final float[] peak = new float[CAPACITY];
+        public final float[] rms = new float[CAPACITY];
+        public final int[] program = new int[CAPACITY];
+        public final int[] voices = new int[CAPACITY];
+        public final int[] flags = new int[CAPACITY];
+        /** Sounding keys, two words per channel: key k of channel ch is bit k & 63 of keys[2 * ch + (k >> 6)]. */
+        public final long[] keys = new long[CAPACITY * 2];
+
+        public boolean isKeyDown(int ch, int key) {
+            return (keys[2 * ch + (key >> 6)] & 1L << (key & 63)) != 0;
+        }
+    }
+
+    public LevelReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < SIZE) throw new IOException("Not a level export: " + file);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION
+                    || map.getInt(8) != CAPACITY || map.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Unsupported level export format: " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the latest complete frame into out, retrying while the publisher is mid-write.
+     * Returns false if no consistent frame could be read (nothing published yet, or a writer stalled mid-frame).
+     */
+    public boolean read(Snapshot out) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long before = (long) LONGS.getAcquire(map, SEQ);
+            if (before == 0) return false;
+            if ((before & 1) != 0) {
+                // a frame takes microseconds to write; past a few spins the writer was probably descheduled
+                if (attempt < 64) Thread.onSpinWait();
+                else Thread.yield();
+                continue;
+            }
+            out.frame = map.getLong(FRAME);
+            out.publishedAtMillis = map.getLong(TIME);
+            out.positionMicros = map.getLong(POSITION);
+            int count = Math.max(0, Math.min(CAPACITY, map.getInt(CHANNELS)));
+            for (int ch = 0; ch < count; ch++) {
+                int off = HEADER_SIZE + ch * RECORD_SIZE;
+                out.peak[ch] = map.getFloat(off);
+                out.rms[ch] = map.getFloat(off + 4);
+                out.program[ch] = map.getShort(off + 8);
+                out.voices[ch] = map.getShort(off + 10);
+                out.flags[ch] = map.getInt(off + 12);
+                out.keys[2 * ch] = map.getLong(off + 16);
+                out.keys[2 * ch + 1] = map.getLong(off + 24);
+            }
+            out.channels = count;
+            VarHandle.acquireFence();
+            if ((long) LONGS.getOpaque(map, SEQ) == before) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path file = args.length > 0 ? Paths.get(args[0]) : LevelPublisher.defaultFile();
+        try (LevelReader reader = new LevelReader(file)) {
+            Snapshot s = new Snapshot();
+            while (true) {
+                if (reader.read(s)) {
+                    StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "frame %d at %.2f s:",
+                            s.frame, s.positionMicros / 1e6));
+                    for (int ch = 0; ch < s.channels; ch++) {
+                        if (s.voices[ch] == 0 && s.peak[ch] == 0f) continue;
+                        line.append(String.format(Locale.ROOT, "  %d[p%d v%d %.2f]", ch, s.program[ch], s.voices[ch], s.peak[ch]));
+                    }
+                    System.out.println(line);
+                }
+                Thread.sleep(1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package cn.moerain.visualmidi;
+
+/**
+ * Receives the state of every channel on each {@link ChannelAnalyzer#tickSinks}, for consumers outside
+ * the Swing views; {@link MidiEngine} runs those ticks on its own thread at about 60 a second, with or
+ * without a view open. Implementations copy what they need and return quickly.
+ */
+public interface LevelSink {
+    void publish(MidiVisualizer visualizer, long positionMicros);
+}
@@ -0,0 +1,114 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Synthetic "black MIDI" load: note on/off pairs at a given rate with a target polyphony, spread
+ * over up to 256 channels (port-tagged beyond 16, like {@link MidiPorts#tagPorts}), plus controller
+ * traffic. Output depends only on the parameters and the seed, so runs are comparable across versions.
+ */
+public class LoadGenerator {
+    private static final int[] CONTROLLERS = {1, 7, 10, 11, 64};
+
+    private final double notesPerSecond;
+    private final int polyphony;
+    private final int channels;
+    private final double controllersPerSecond;
+    private final long seed;
+
+    /**
+     * @param notesPerSecond       note-on rate
+     * @param polyphony            average number of notes sounding at once (sets the note length)
+     * @param channels             channels to spread notes over, 1..256
+     * @param controllersPerSecond control change rate across all channels
+     * @param seed                 random seed
+     */
+    public LoadGenerator(double notesPerSecond, int polyphony, int channels, double controllersPerSecond, long seed) {
+        this.notesPerSecond = notesPerSecond;
+        this.polyphony = Math.max(1, polyphony);
+        this.channels = Math.max(1, Math.min(channels, MidiPorts.MAX_PORTS * MidiVisualizer.CHANNELS_PER_PORT));
+        this.controllersPerSecond = controllersPerSecond;
+        this.seed = seed;
+    }
+
+    /** A generated event stream, sorted by time. */
+    public static final class Events {
+        public final long[] micros;
+        public final ShortMessage[] messages;
+
+        Events(long[] micros, ShortMessage[] messages) {
+            this.micros = micros;
+            this.messages = messages;
+        }
+
+        public int size() {
+            return micros.length;
+        }
+    }
+
+    private record Timed(long micros, ShortMessage message) {}
+
+    public Events generate(double seconds) {
+        Random rnd = new Random(seed);
+        int notes = (int) (notesPerSecond * seconds);
+        int ccs = (int) (controllersPerSecond * seconds);
+        long noteLength = (long) (polyphony * 1_000_000.0 / Math.max(1e-9, notesPerSecond));
+        Timed[] events = new Timed[notes * 2 + ccs];
+        int n = 0;
+        try {
+            for (int i = 0; i < notes; i++) {
+                long on = (long) ((i + rnd.nextDouble()) * 1_000_000.0 / notesPerSecond);
+                int ch = rnd.nextInt(channels);
+                int key = 24 + rnd.nextInt(84);
+                events[n++] = new Timed(on, message(ShortMessage.NOTE_ON, ch, key, 40 + rnd.nextInt(88)));
+                events[n++] = new Timed(on + noteLength, message(ShortMessage.NOTE_OFF, ch, key, 0));
+            }
+            for (int i = 0; i < ccs; i++) {
+                long at = (long) ((i + rnd.nextDouble()) * 1_000_000.0 / controllersPerSecond);
+                int cc = CONTROLLERS[rnd.nextInt(CONTROLLERS.length)];
+                events[n++] = new Timed(at, message(ShortMessage.CONTROL_CHANGE, rnd.nextInt(channels), cc, rnd.nextInt(128)));
+            }
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e); // all values are generated in range
+        }
+        Arrays.sort(events, Comparator.comparingLong(Timed::micros));
+        long[] micros = new long[n];
+        ShortMessage[] messages = new ShortMessage[n];
+        for (int i = 0; i < n; i++) {
+            micros[i] = events[i].micros();
+            messages[i] = events[i].message();
+        }
+        return new Events(micros, messages);
+    }
+
+    /** The same load as a sequence with one track per port (1 tick = 1 ms), e.g. to play through the real sequencer. */
+    public Sequence toSequence(double seconds) throws InvalidMidiDataException {
+        // 500 ticks per quarter at the default 120 BPM is one tick per millisecond
+        Sequence seq = new Sequence(Sequence.PPQ, 500);
+        Events ev = generate(seconds);
+        // one track per port; with more than one port each track starts with its port meta event
+        Track[] tracks = new Track[(channels + MidiVisualizer.CHANNELS_PER_PORT - 1) / MidiVisualizer.CHANNELS_PER_PORT];
+        for (int i = 0; i < ev.size(); i++) {
+            ShortMessage sm = ev.messages[i];
+            int port = MidiPorts.portOf(sm);
+            if (tracks[port] == null) {
+                tracks[port] = seq.createTrack();
+                if (tracks.length > 1) {
+                    tracks[port].add(new MidiEvent(new MetaMessage(MidiPorts.META_PORT, new byte[]{(byte) port}, 1), 0));
+                }
+            }
+            tracks[port].add(new MidiEvent(new ShortMessage(sm.getCommand(), sm.getChannel(), sm.getData1(), sm.getData2()),
+                    ev.micros[i] / 1000));
+        }
+        return seq;
+    }
+
+    private static ShortMessage message(int command, int index, int data1, int data2) throws InvalidMidiDataException {
+        ShortMessage sm = new ShortMessage(command, index % MidiVisualizer.CHANNELS_PER_PORT, data1, data2);
+        int port = index / MidiVisualizer.CHANNELS_PER_PORT;
+        return port > 0 ? new PortShortMessage(sm, port) : sm;
+    }
+}
@@ -0,0 +1,136 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The software synth's output line, wrapped to see what reaches the speakers: it counts underruns
+ * (the device played everything written and starved) and, when armed, times the first audible sample
+ * after a MIDI event from the moment it was sent to the moment the device plays it. The synth's
+ * pusher thread is the only writer.
+ */
+public final class MeasuredLine implements SourceDataLine {
+    // 16-bit samples above this are the probe note, not dither or a release tail
+    private static final int ONSET_THRESHOLD = 1024;
+
+    private final SourceDataLine line;
+    private long framesWritten;
+    // has had audio queued ahead of the device, so an empty queue means it starved; cleared when the
+    // line is stopped or flushed, since an idle device is not a starved one
+    private volatile boolean primed;
+    private volatile boolean flushed; // queued frames were dropped: the writer resynchronizes its count
+    private volatile long underruns;
+    private volatile long armedAt; // nanoTime of the event being timed, 0 when idle
+    private volatile long onsetLatencyNanos = -1;
+    private volatile CountDownLatch onset = new CountDownLatch(0);
+
+    public MeasuredLine(SourceDataLine line) {
+        this.line = line;
+    }
+
+    /** Times of the event sent at sentNanos; the result is read with {@link #awaitOnset}. */
+    public void arm(long sentNanos) {
+        onsetLatencyNanos = -1;
+        onset = new CountDownLatch(1);
+        armedAt = sentNanos;
+    }
+
+    /** Event-to-audio latency of the armed event in nanoseconds, or -1 if nothing sounded in time. */
+    public long awaitOnset(long timeoutMillis) throws InterruptedException {
+        onset.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        armedAt = 0;
+        return onsetLatencyNanos;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /** Length of the line buffer in microseconds. */
+    public long getBufferMicros() {
+        AudioFormat f = line.getFormat();
+        return (long) (line.getBufferSize() / f.getFrameSize() / (double) f.getFrameRate() * 1e6);
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        int frameSize = line.getFormat().getFrameSize();
+        long played = line.getLongFramePosition();
+        if (flushed) {
+            // dropped frames never play, so only what the device did play counts as written
+            flushed = false;
+            framesWritten = played;
+        }
+        if (primed && played >= framesWritten) underruns++;
+        if (framesWritten > played) primed = true;
+        long armed = armedAt;
+        if (armed != 0 && onsetLatencyNanos < 0) {
+            int frame = onsetFrame(b, off, len, frameSize);
+            if (frame >= 0) {
+                // the device reaches this frame once everything queued before it has played
+                long queued = framesWritten - played + frame;
+                long playsAt = System.nanoTime() + (long) (queued / (double) line.getFormat().getFrameRate() * 1e9);
+                onsetLatencyNanos = Math.max(0, playsAt - armed);
+                onset.countDown();
+            }
+        }
+        int written = line.write(b, off, len);
+        framesWritten += written / frameSize;
+        return written;
+    }
+
+    // First frame with a loud sample, for 16-bit PCM; other formats are not timed
+    private int onsetFrame(byte[] b, int off, int len, int frameSize) {
+        AudioFormat f = line.getFormat();
+        if (f.getSampleSizeInBits() != 16 || f.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) return -1;
+        boolean big = f.isBigEndian();
+        for (int i = 0; i + 1 < len; i += 2) {
+            int v = big ? (b[off + i] << 8 | b[off + i + 1] & 0xFF) : (b[off + i + 1] << 8 | b[off + i] & 0xFF);
+            if (Math.abs(v) > ONSET_THRESHOLD) return i / frameSize;
+        }
+        return -1;
+    }
+
+    @Override public void open(AudioFormat format, int bufferSize) throws LineUnavailableException { line.open(format, bufferSize); }
+    @Override public void open(AudioFormat format) throws LineUnavailableException { line.open(format); }
+    @Override public void open() throws LineUnavailableException { line.open(); }
+    @Override public void close() { line.close(); }
+    @Override public boolean isOpen() { return line.isOpen(); }
+    @Override public void drain() { line.drain(); }
+    @Override public void start() { line.start(); }
+
+    @Override
+    public void flush() {
+        line.flush();
+        primed = false;
+        flushed = true;
+    }
+
+    @Override
+    public void stop() {
+        line.stop();
+        primed = false;
+    }
+
+    @Override public boolean isRunning() { return line.isRunning(); }
+    @Override public boolean isActive() { return line.isActive(); }
+    @Override public AudioFormat getFormat() { return line.getFormat(); }
+    @Override public int getBufferSize() { return line.getBufferSize(); }
+    @Override public int available() { return line.available(); }
+    @Override public int getFramePosition() { return line.getFramePosition(); }
+    @Override public long getLongFramePosition() { return line.getLongFramePosition(); }
+    @Override public long getMicrosecondPosition() { return line.getMicrosecondPosition(); }
+    @Override public float getLevel() { return line.getLevel(); }
+    @Override public Line.Info getLineInfo() { return line.getLineInfo(); }
+    @Override public Control[] getControls() { return line.getControls(); }
+    @Override public boolean isControlSupported(Control.Type control) { return line.isControlSupported(control); }
+    @Override public Control getControl(Control.Type control) { return line.getControl(control); }
+    @Override public void addLineListener(LineListener listener) { line.addLineListener(listener); }
+    @Override public void removeLineListener(LineListener listener) { line.removeLineListener(listener); }
+}
@@ -0,0 +1,573 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MidiEngine {
+    private final MidiVisualizer visualizer = new MidiVisualizer();
+    private final ChannelAnalyzer analyzer = new ChannelAnalyzer(visualizer);
+    private volatile Sequencer sequencer;
+    private Receiver targetReceiver; // selected output receiver
+    private final TeeReceiver teeReceiver = new TeeReceiver(visualizer); // forwards to targetReceiver and visualizer
+    private Synthesizer softwareSynth; // for software output
+    private DeviceOption currentDevice = DeviceOption.softwareSynth();
+    private Soundbank loadedSoundbank;
+    private File loadedSoundbankFile;
+    private boolean loadedSoundbankLarge; // played from the file, see SoundFontFile
+    private boolean synthLargeMode;
+    private volatile MeasuredLine synthLine; // software synth output, null when it opened its own line
+    // the JDK synth's defaults for what DeviceOption leaves unset
+    private static final float DEFAULT_SYNTH_RATE = 44100f;
+    private static final long DEFAULT_SYNTH_LATENCY = 120_000L;
+    private volatile Runnable sequenceEndListener;
+    private volatile TempoMap tempoMap; // of the loaded sequence, null before the first
+    // tracks of the loaded sequence and the per-track mute/solo set on them
+    private List<PreparedSequence.TrackInfo> tracks = List.of();
+    private boolean[] trackMute = new boolean[0];
+    private boolean[] trackSolo = new boolean[0];
+
+    // Opening the sequencer and the software synth (which loads the default soundbank) is slow,
+    // so both run in parallel off the caller's thread; callers wait on these only when they need them.
+    private final CompletableFuture<Sequencer> sequencerReady;
+    private final CompletableFuture<Void> outputReady;
+
+    // Offline analysis of the loaded file (see AnalysisCache); -Dvisualmidi.analysisCache=false disables it
+    static final boolean ANALYSIS_CACHE = !"false".equals(System.getProperty("visualmidi.analysisCache"));
+    private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "analysis-cache");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private Future<?> cacheJob;
+
+    // -Dvisualmidi.levelExport=true (default file) or =<path> shares live levels with other processes
+    private static final String LEVEL_EXPORT = System.getProperty("visualmidi.levelExport");
+    // -Dvisualmidi.stateServer=true (port 7170) or =<port> streams the state to browsers on this machine
+    private static final String STATE_SERVER = System.getProperty("visualmidi.stateServer");
+    // the sinks are fed at the views' rate by the engine itself, so they work with no view open
+    private static final long SINK_PERIOD_MICROS = 16_667;
+    private LevelPublisher levelPublisher;
+    private StateServer stateServer;
+    private ScheduledExecutorService sinkTicker;
+
+    public MidiEngine() {
+        ExecutorService bootstrap = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "midi-bootstrap");
+            t.setDaemon(true);
+            return t;
+        });
+        sequencerReady = CompletableFuture.supplyAsync(this::openSequencer, bootstrap);
+        outputReady = CompletableFuture.runAsync(() -> {
+            try {
+                // default to software synth
+                setOutputDevice(DeviceOption.softwareSynth());
+                StartupTimer.mark("software synth and default soundbank ready");
+            } catch (MidiUnavailableException e) {
+                throw new CompletionException(e);
+            }
+        }, bootstrap);
+        CompletableFuture.allOf(sequencerReady, outputReady).whenComplete((v, t) -> bootstrap.shutdown());
+        analyzer.setPositionSource(this::getPositionMicros);
+        analyzer.setPlayingSource(this::isPlaying);
+        visualizer.setAudibleListener(this::applyTrackMutes);
+        if (LEVEL_EXPORT != null && !"false".equals(LEVEL_EXPORT)) {
+            Path file = "true".equals(LEVEL_EXPORT) ? LevelPublisher.defaultFile() : Paths.get(LEVEL_EXPORT);
+            try {
+                levelPublisher = new LevelPublisher(file);
+                analyzer.addSink(levelPublisher);
+            } catch (IOException e) {
+                System.err.println("Level export unavailable at " + file + ": " + e.getMessage());
+            }
+        }
+        if (STATE_SERVER != null && !"false".equals(STATE_SERVER)) {
+            try {
+                stateServer = new StateServer("true".equals(STATE_SERVER) ? StateServer.DEFAULT_PORT : Integer.parseInt(STATE_SERVER));
+                analyzer.addSink(stateServer);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("State server unavailable: " + e.getMessage());
+            }
+        }
+        if (analyzer.hasSinks()) startSinkTicker();
+    }
+
+    private void startSinkTicker() {
+        sinkTicker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "level-sinks");
+            t.setDaemon(true);
+            return t;
+        });
+        sinkTicker.scheduleAtFixedRate(() -> {
+            try {
+                analyzer.tickSinks();
+            } catch (RuntimeException e) {
+                // a failed tick must not cancel the schedule
+                System.err.println("Level sinks: " + e);
+            }
+        }, 0, SINK_PERIOD_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    private Sequencer openSequencer() {
+        try {
+            Sequencer seq = MidiSystem.getSequencer(false); // we provide our Receiver
+            seq.open();
+            seq.getTransmitter().setReceiver(teeReceiver);
+            // every track's end-of-track event reaches meta listeners too; the end of the whole
+            // sequence is the one that arrives after the sequencer stopped at the last tick
+            seq.addMetaEventListener(m -> {
+                Runnable r = sequenceEndListener;
+                if (r != null && m.getType() == 0x2F && !seq.isRunning() && seq.getTickPosition() >= seq.getTickLength()) {
+                    r.run();
+                }
+            });
+            StartupTimer.mark("sequencer open");
+            return seq;
+        } catch (MidiUnavailableException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    public MidiVisualizer getVisualizer() { return visualizer; }
+
+    public ChannelAnalyzer getAnalyzer() { return analyzer; }
+
+    /** Loopback port the state stream is served on, or -1 when it is not enabled (see {@link StateServer}). */
+    public int getStateServerPort() {
+        return stateServer != null ? stateServer.getPort() : -1;
+    }
+
+    /** Completes once the sequencer is open; MIDI loading and transport controls need it. */
+    public CompletableFuture<Void> whenSequencerReady() {
+        return sequencerReady.thenApply(s -> null);
+    }
+
+    /** Completes once the initial output device (the software synth) is open. */
+    public CompletableFuture<Void> whenOutputReady() {
+        return outputReady.thenApply(v -> null);
+    }
+
+    private Sequencer sequencer() {
+        Sequencer seq = sequencer;
+        if (seq != null) return seq;
+        try {
+            return sequencer = sequencerReady.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new RuntimeException("MIDI unavailable: " + cause.getMessage(), cause);
+        }
+    }
+
+    public void loadMidi(File midiFile) throws InvalidMidiDataException, IOException, MidiUnavailableException {
+        load(PreparedSequence.parse(midiFile), false);
+    }
+
+    /**
+     * Swaps in a sequence prepared ahead of time. With continuous set (a playlist moving on at the end
+     * of a song) the visualizer's queue is kept, so events still waiting out the output latency show
+     * when they are heard; the sequencer has already silenced every channel by then, so no voices carry over.
+     */
+    public void load(PreparedSequence prepared, boolean continuous) throws InvalidMidiDataException, MidiUnavailableException {
+        if (prepared.getSoundbank() != null) useSoundbank(prepared.getSoundbankFile(), prepared.getSoundbank());
+        visualizer.setChannelCount(prepared.getChannelCount());
+        sequencer().setSequence(prepared.getSequence());
+        tempoMap = prepared.getTempoMap();
+        synchronized (this) {
+            tracks = prepared.getTracks();
+            trackMute = new boolean[tracks.size()];
+            trackSolo = new boolean[tracks.size()];
+        }
+        applyTrackMutes();
+        if (!continuous) visualizer.clearVoices();
+        analyzer.setOverview(prepared.getOverview());
+        startAnalysisCache(prepared);
+    }
+
+    public synchronized List<PreparedSequence.TrackInfo> getTracks() {
+        return tracks;
+    }
+
+    /** Mutes a track of the loaded sequence at the sequencer, which then does not send its events at all. */
+    public void setTrackMute(int track, boolean mute) {
+        synchronized (this) {
+            if (track < 0 || track >= trackMute.length) return;
+            trackMute[track] = mute;
+        }
+        applyTrackMutes();
+    }
+
+    public void setTrackSolo(int track, boolean solo) {
+        synchronized (this) {
+            if (track < 0 || track >= trackSolo.length) return;
+            trackSolo[track] = solo;
+        }
+        applyTrackMutes();
+    }
+
+    public synchronized boolean isTrackMuted(int track) {
+        return track >= 0 && track < trackMute.length && trackMute[track];
+    }
+
+    public synchronized boolean isTrackSolo(int track) {
+        return track >= 0 && track < trackSolo.length && trackSolo[track];
+    }
+
+    // Pushes mute and solo to the sequencer: tracks muted by hand, plus tracks whose channels are all
+    // muted (or not soloed) on the channel strips, so their events are never dispatched. Tracks without
+    // channel messages are left alone; the sequencer keeps following the first track's tempo changes
+    // while it is muted, and ignores them on the other tracks either way.
+    private synchronized void applyTrackMutes() {
+        Sequencer seq = sequencer;
+        if (seq == null || seq.getSequence() == null) return;
+        long[] audible = visualizer.getAudibleMask();
+        for (PreparedSequence.TrackInfo info : tracks) {
+            int t = info.index();
+            boolean silent = info.hasChannels() && !anyAudible(info.channels(), audible);
+            seq.setTrackMute(t, trackMute[t] || silent);
+            seq.setTrackSolo(t, trackSolo[t]);
+        }
+    }
+
+    private static boolean anyAudible(long[] channels, long[] audible) {
+        for (int i = 0; i < channels.length; i++) {
+            if ((channels[i] & (i < audible.length ? audible[i] : -1L)) != 0) return true;
+        }
+        return false;
+    }
+
+    /** Called on the sequencer's event thread each time playback reaches the end of the sequence. */
+    public void setSequenceEndListener(Runnable listener) {
+        this.sequenceEndListener = listener;
+    }
+
+    // Attaches the file's cached levels, running the offline pass in the background on first play,
+    // and fills the song overview from them
+    private synchronized void startAnalysisCache(PreparedSequence prepared) {
+        if (cacheJob != null) cacheJob.cancel(true);
+        cacheJob = null;
+        // opened and filled into the overview when it was prepared
+        analyzer.setCache(prepared.getCache());
+        if (prepared.getCache() != null || !ANALYSIS_CACHE) return;
+        File midiFile = prepared.getFile();
+        Sequence seq = prepared.getSequence();
+        int channelCount = prepared.getChannelCount();
+        EnvelopePyramid overview = prepared.getOverview();
+        cacheJob = cacheExecutor.submit(() -> {
+            try {
+                AnalysisCache cache = AnalysisCache.loadOrBuild(midiFile, seq, channelCount);
+                overview.fill(cache);
+                synchronized (this) {
+                    if (!Thread.currentThread().isInterrupted()) analyzer.setCache(cache);
+                }
+            } catch (InterruptedIOException | ClosedByInterruptException e) {
+                // superseded by a newer file (interrupted between frames or in the middle of a write)
+            } catch (IOException e) {
+                // live analysis keeps working without the cache
+                System.err.println("Analysis cache unavailable for " + midiFile.getName() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public synchronized void loadSf2(File sf2File) throws Exception {
+        useSoundbank(sf2File, readSoundbank(sf2File));
+    }
+
+    /**
+     * Parses an SF2 file without touching the synth, so it can be done ahead of time. Only the
+     * instrument and sample headers are read; sample data is referenced by its offset in the file.
+     */
+    public static Soundbank readSoundbank(File sf2File) throws Exception {
+        // Attempt to load SF2 soundbank using Java internal class if available
+        try {
+            Soundbank sb = MidiSystem.getSoundbank(sf2File);
+            if (sb == null) {
+                // Fallback to com.sun.media.sound.SF2Soundbank if not detected
+                sb = (Soundbank)Class.forName("com.sun.media.sound.SF2Soundbank").getConstructor(File.class).newInstance(sf2File);
+            }
+            return sb;
+        } catch (Throwable t) {
+            throw new Exception("Failed to load SF2: " + t.getMessage(), t);
+        }
+    }
+
+    private synchronized void useSoundbank(File file, Soundbank sb) throws MidiUnavailableException {
+        if (sb == loadedSoundbank) return;
+        boolean large = false;
+        if (file != null) {
+            try {
+                SoundFontFile sf = SoundFontFile.probe(file);
+                large = sf.isLarge();
+                if (large) sf.warm();
+            } catch (IOException e) {
+                // not an SF2 (a DLS bank, say): loaded the usual way
+            }
+        }
+        this.loadedSoundbank = sb;
+        this.loadedSoundbankFile = file;
+        this.loadedSoundbankLarge = large;
+        if (softwareSynth != null && large != synthLargeMode) {
+            setOutputDevice(currentDevice); // large mode is chosen when the synth opens
+        } else if (softwareSynth != null && softwareSynth.isOpen()) {
+            softwareSynth.unloadAllInstruments(softwareSynth.getDefaultSoundbank());
+            softwareSynth.loadAllInstruments(sb);
+        }
+    }
+
+    /** File of the soundbank loaded with {@link #loadSf2}, null while the default one is in use. */
+    public synchronized File getSoundbankFile() {
+        return loadedSoundbankFile;
+    }
+
+    public synchronized void setOutputDevice(DeviceOption option) throws MidiUnavailableException {
+        this.currentDevice = option;
+        // Close previous receiver/synth
+        if (targetReceiver != null) {
+            targetReceiver.close();
+            targetReceiver = null;
+        }
+        if (softwareSynth != null) {
+            softwareSynth.close();
+            softwareSynth = null;
+        }
+        if (synthLine != null) {
+            synthLine.close(); // ours, the synth does not close a line it was given
+            synthLine = null;
+        }
+        // Open new device
+        if (option.getType() == DeviceOption.Type.SOFTWARE_SYNTH) {
+            softwareSynth = MidiSystem.getSynthesizer();
+            synthLargeMode = loadedSoundbankLarge;
+            synthLine = openSoftwareSynth(softwareSynth, option, synthLargeMode);
+            if (loadedSoundbank != null) {
+                softwareSynth.unloadAllInstruments(softwareSynth.getDefaultSoundbank());
+                softwareSynth.loadAllInstruments(loadedSoundbank);
+            } else {
+                // touch the default soundbank now so the first note does not pay for it
+                softwareSynth.getDefaultSoundbank();
+            }
+            targetReceiver = softwareSynth.getReceiver();
+        } else {
+            MidiDevice device = MidiSystem.getMidiDevice(option.getInfo());
+            device.open();
+            targetReceiver = device.getReceiver();
+        }
+        // Update tee receiver to forward to target
+        teeReceiver.setTarget(targetReceiver);
+        visualizer.setOutputLatencyMicros(outputLatency(option));
+    }
+
+    /**
+     * Opens the software synth with the settings of option, on an audio line of our own wrapped in a
+     * {@link MeasuredLine}. The settings are open options of the JDK's AudioSynthesizer, reachable with
+     * the --add-exports the launcher passes; without it the synth opens with its defaults and null is
+     * returned. Large mode keeps the synth from copying every sample onto the heap; it streams them
+     * from the soundbank file instead.
+     */
+    static MeasuredLine openSoftwareSynth(Synthesizer synth, DeviceOption option, boolean largeMode) throws MidiUnavailableException {
+        float rate = option.getSampleRate() > 0 ? option.getSampleRate() : DEFAULT_SYNTH_RATE;
+        long latency = option.getSynthLatencyMicros() > 0 ? option.getSynthLatencyMicros() : DEFAULT_SYNTH_LATENCY;
+        AudioFormat format = new AudioFormat(rate, 16, 2, true, false);
+        Map<String, Object> info = new HashMap<>();
+        info.put("format", format);
+        info.put("latency", latency);
+        if (option.getMaxPolyphony() > 0) info.put("max polyphony", option.getMaxPolyphony());
+        if (option.getInterpolation() != null) info.put("interpolation", option.getInterpolation().name().toLowerCase(Locale.ROOT));
+        if (largeMode) info.put("large mode", true);
+
+        MeasuredLine line;
+        try {
+            SourceDataLine raw = AudioSystem.getSourceDataLine(format);
+            int frames = option.getBufferFrames() > 0 ? option.getBufferFrames() : (int) (rate * latency / 1_000_000L);
+            raw.open(format, frames * format.getFrameSize());
+            line = new MeasuredLine(raw);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw (MidiUnavailableException) new MidiUnavailableException("Can not open line: " + e.getMessage()).initCause(e);
+        }
+        try {
+            Class.forName("com.sun.media.sound.AudioSynthesizer").getMethod("open", SourceDataLine.class, Map.class)
+                    .invoke(synth, line, info);
+            return line;
+        } catch (InvocationTargetException e) {
+            line.close();
+            if (e.getCause() instanceof MidiUnavailableException mue) throw mue;
+            throw new MidiUnavailableException(String.valueOf(e.getCause()));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            line.close();
+            System.err.println("Software synth settings unavailable, opening with defaults: " + e);
+            synth.open();
+            return null;
+        }
+    }
+
+    // Visuals are delayed by this much so they line up with what is heard
+    private long outputLatency(DeviceOption option) {
+        if (option.getLatencyMicros() != DeviceOption.AUTO_LATENCY) return option.getLatencyMicros();
+        // the software synth knows its buffer latency; hardware ports report nothing useful, assume none
+        if (synthLine != null) return synthLine.getBufferMicros();
+        return softwareSynth != null ? Math.max(0, softwareSynth.getLatency()) : 0;
+    }
+
+    /**
+     * Times note-ons on the software synth from send to sound, and counts underruns meanwhile; see
+     * {@link LatencyProbe}. Playback is stopped first, the probe needs silence to hear its notes.
+     */
+    public LatencyProbe.Result measureOutputLatency(int probes) throws InvalidMidiDataException, MidiUnavailableException, InterruptedException {
+        Synthesizer synth;
+        MeasuredLine line;
+        synchronized (this) {
+            synth = softwareSynth;
+            line = synthLine;
+        }
+        if (synth == null || line == null) throw new IllegalStateException("Only the software synth can be measured");
+        stop();
+        return LatencyProbe.measure(synth, line, probes);
+    }
+
+    /** Underruns of the software synth's output since it was opened. */
+    public long getUnderruns() {
+        MeasuredLine line = synthLine;
+        return line != null ? line.getUnderruns() : 0;
+    }
+
+    public long getOutputLatencyMicros() {
+        return visualizer.getOutputLatencyMicros();
+    }
+
+    /** Changes the latency compensation of the current output (or back to automatic) without reopening it. */
+    public synchronized void setOutputLatency(long micros) {
+        currentDevice = currentDevice.withLatencyMicros(micros);
+        visualizer.setOutputLatencyMicros(outputLatency(currentDevice));
+    }
+
+    public synchronized DeviceOption getOutputDevice() {
+        return currentDevice;
+    }
+
+    /** Tick/time conversions of the loaded sequence, null if none. */
+    public TempoMap getTempoMap() {
+        return tempoMap;
+    }
+
+    /** Length of the loaded sequence, 0 if none. */
+    public long getLengthMicros() {
+        TempoMap map = tempoMap;
+        return map != null ? map.getLengthMicros() : 0L;
+    }
+
+    /**
+     * Current playback position, 0 until a sequence is loaded. Read from the sequencer's tick, which is
+     * cheap, and the tempo map rather than the sequencer's time, which walks the tempo list under a lock.
+     */
+    public long getPositionMicros() {
+        Sequencer seq = sequencer;
+        TempoMap map = tempoMap;
+        return seq != null && map != null ? map.toMicros(seq.getTickPosition()) : 0L;
+    }
+
+    /** Position of what is being heard: the playback position less the output latency, from 0. */
+    public long getHeardPositionMicros() {
+        return Math.max(0L, getPositionMicros() - visualizer.getOutputLatencyMicros());
+    }
+
+    /** Whether the sequencer is playing; false while paused, stopped or before it is ready. */
+    public boolean isPlaying() {
+        Sequencer seq = sequencer;
+        return seq != null && seq.isRunning();
+    }
+
+    public void play() {
+        sequencer().start();
+    }
+
+    public void pause() {
+        Sequencer seq = sequencer();
+        if (seq.isRunning()) {
+            seq.stop();
+        } else {
+            seq.start();
+        }
+    }
+
+    public void stop() {
+        Sequencer seq = sequencer();
+        seq.stop();
+        seq.setTickPosition(0);
+        visualizer.clearVoices();
+    }
+
+    /** Moves playback to the given position; voices sounding before the jump are dropped. */
+    public void seek(long micros) {
+        Sequencer seq = sequencer();
+        TempoMap map = tempoMap;
+        if (map != null) {
+            seq.setTickPosition(map.toTick(micros));
+        } else {
+            seq.setMicrosecondPosition(micros);
+        }
+        visualizer.clearVoices();
+    }
+
+    /**
+     * Stops playback and releases what the engine opened: the sequencer, the output, the level sinks
+     * and the worker threads. The engine is not usable afterwards.
+     */
+    public void close() {
+        if (sinkTicker != null) {
+            sinkTicker.shutdownNow();
+            try {
+                sinkTicker.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (levelPublisher != null) {
+            analyzer.removeSink(levelPublisher);
+            try {
+                levelPublisher.close();
+            } catch (IOException e) {
+                System.err.println("Closing level export: " + e.getMessage());
+            }
+        }
+        if (stateServer != null) {
+            analyzer.removeSink(stateServer);
+            try {
+                stateServer.close();
+            } catch (IOException e) {
+                System.err.println("Closing state server: " + e.getMessage());
+            }
+        }
+        cacheExecutor.shutdownNow();
+        analyzer.close();
+        sequencerReady.thenAccept(Sequencer::close);
+        outputReady.whenComplete((v, t) -> {
+            synchronized (this) {
+                if (targetReceiver != null) targetReceiver.close();
+                if (softwareSynth != null) softwareSynth.close();
+                if (synthLine != null) synthLine.close();
+                targetReceiver = null;
+                softwareSynth = null;
+                synthLine = null;
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.*;
+
+/**
+ * Helpers for files that use the MIDI port meta event (0x21) to address more than 16 channels.
+ * A port event applies to the channel events that follow it in the same track.
+ */
+public final class MidiPorts {
+    public static final int META_PORT = 0x21;
+    public static final int MAX_PORTS = 16;
+
+    private MidiPorts() {}
+
+    /** Port a message was tagged with by {@link #tagPorts}, or 0 for untagged messages. */
+    public static int portOf(MidiMessage message) {
+        return message instanceof PortShortMessage pm ? pm.getPort() : 0;
+    }
+
+    /** Number of ports the sequence addresses (at least 1). */
+    public static int countPorts(Sequence seq) {
+        int max = 0;
+        for (Track track : seq.getTracks()) {
+            for (int i = 0, n = track.size(); i < n; i++) {
+                MidiMessage msg = track.get(i).getMessage();
+                if (msg instanceof MetaMessage meta && meta.getType() == META_PORT) {
+                    max = Math.max(max, portValue(meta));
+                }
+            }
+        }
+        return max + 1;
+    }
+
+    /**
+     * Returns a copy of the sequence in which every channel message after a port event carries that
+     * port as a {@link PortShortMessage}. Track order and all other events are preserved.
+     */
+    public static Sequence tagPorts(Sequence seq) throws InvalidMidiDataException {
+        Sequence out = new Sequence(seq.getDivisionType(), seq.getResolution());
+        for (Track track : seq.getTracks()) {
+            Track copy = out.createTrack();
+            int port = 0;
+            // events are already in tick order, so every add below takes Track's append fast path
+            for (int i = 0, n = track.size(); i < n; i++) {
+                MidiEvent ev = track.get(i);
+                MidiMessage msg = ev.getMessage();
+                if (msg instanceof MetaMessage meta && meta.getType() == META_PORT) {
+                    port = portValue(meta);
+                } else if (port != 0 && msg instanceof ShortMessage sm && sm.getCommand() < 0xF0) {
+                    ev = new MidiEvent(new PortShortMessage(sm, port), ev.getTick());
+                }
+                copy.add(ev);
+            }
+        }
+        return out;
+    }
+
+    /** Port a port meta event selects, folded into 0..MAX_PORTS-1; 0 when it carries no data. */
+    static int portValue(MetaMessage meta) {
+        byte[] data = meta.getData();
+        return data.length > 0 ? (data[0] & 0xFF) % MAX_PORTS : 0;
+    }
+}
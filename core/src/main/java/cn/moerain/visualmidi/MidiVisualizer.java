@@ -0,0 +1,786 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class MidiVisualizer {
+    public static final int CHANNELS_PER_PORT = 16;
+    /** Synthesis rate unless configured otherwise; visualization only, so 8kHz is plenty. */
+    public static final double DEFAULT_SAMPLE_RATE = 8000.0;
+    /** Waveform history per channel until a view asks for another length. */
+    public static final int DEFAULT_HISTORY = 2048;
+    private static final int MIN_HISTORY = 64;
+    private static final int MAX_HISTORY = 1 << 16;
+
+    // Controllers the visualizer acts on; everything else only matters to the synth
+    private static final int CC_SUSTAIN = 64;
+    private static final int CC_ALL_SOUND_OFF = 120;
+    private static final int CC_RESET_ALL_CONTROLLERS = 121;
+    private static final int CC_ALL_NOTES_OFF = 123; // 124..127 (omni/mono/poly) imply it too
+
+    /** Which sounding voice gives way when a cap is reached and another note starts. */
+    public enum StealPolicy {
+        OLDEST, QUIETEST, LOWEST_VELOCITY;
+
+        static StealPolicy parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return OLDEST;
+            }
+        }
+    }
+
+    // Every voice costs a sine per sample until it decays, so these caps bound the synthesis work
+    // whatever the input; override with -Dvisualmidi.maxVoicesPerChannel, -Dvisualmidi.maxVoices
+    // and -Dvisualmidi.voiceStealing=oldest|quietest|lowest_velocity
+    private volatile int maxVoicesPerChannel = configuredMaxVoicesPerChannel();
+    private volatile int maxVoices = configuredMaxVoices();
+    private volatile StealPolicy stealPolicy = configuredStealPolicy();
+    private final AtomicInteger voiceCount = new AtomicInteger();
+    private final AtomicLong stolenVoices = new AtomicLong();
+
+    // Synthesis rate (-Dvisualmidi.sampleRate) and history length; channels pick up changes on their next advance
+    private volatile double sampleRate = clampRate(Double.parseDouble(
+            System.getProperty("visualmidi.sampleRate", String.valueOf(DEFAULT_SAMPLE_RATE))));
+    private volatile int historyLength = DEFAULT_HISTORY;
+
+    // Events wait here until the output has actually sounded them: arrival (or sender timestamp) plus
+    // the output latency. A fixed ring of due times and message references, so queuing allocates
+    // nothing; with no latency and nothing queued, events skip it entirely.
+    private static final int QUEUE_CAPACITY = 1 << 14;
+    private final long[] dueNanos = new long[QUEUE_CAPACITY];
+    private final MidiMessage[] pending = new MidiMessage[QUEUE_CAPACITY];
+    private int head = 0; // guarded by pending
+    private int tail = 0;
+    private volatile int queued = 0;
+    private final ReentrantLock drainLock = new ReentrantLock(); // one applier at a time keeps events in order, and clears wait for it; taken before pending, never inside it
+    private volatile long latencyNanos = 0;
+    // timestamped senders: our clock minus theirs, the smallest seen (least transport delay), in micros
+    private long clockOffsetMicros = Long.MAX_VALUE;
+
+    // Indexed by port * CHANNELS_PER_PORT + channel; replaced (never mutated in size) when the count changes
+    private volatile ChannelState[] channels = new ChannelState[0];
+    // mute/solo are copied on write and read without locking; audible is the allow-mask derived from
+    // both (bit set = sounds), swapped whole on every change so the event path tests one bit
+    private volatile boolean[] mute = new boolean[0];
+    private volatile boolean[] solo = new boolean[0];
+    private volatile long[] audible = new long[0];
+    private volatile Runnable audibleListener;
+
+    public MidiVisualizer() {
+        setChannelCount(CHANNELS_PER_PORT);
+    }
+
+    /** Resizes the visualizer to {@code count} channels, keeping the state of channels that remain. */
+    public synchronized void setChannelCount(int count) {
+        count = Math.max(CHANNELS_PER_PORT, Math.min(count, MidiPorts.MAX_PORTS * CHANNELS_PER_PORT));
+        ChannelState[] old = channels;
+        if (old.length == count) return;
+        ChannelState[] next = Arrays.copyOf(old, count);
+        for (int i = old.length; i < count; i++) next[i] = new ChannelState(this);
+        for (int i = count; i < old.length; i++) voiceCount.addAndGet(-old[i].getVoiceCount());
+        mute = Arrays.copyOf(mute, count);
+        solo = Arrays.copyOf(solo, count);
+        channels = next;
+        updateAudible();
+    }
+
+    public int getChannelCount() { return channels.length; }
+
+    // The caps and policy a new visualizer starts with, read from the system properties on each call
+    static int configuredMaxVoicesPerChannel() {
+        return Math.max(1, Integer.getInteger("visualmidi.maxVoicesPerChannel", 32));
+    }
+
+    static int configuredMaxVoices() {
+        return Math.max(1, Integer.getInteger("visualmidi.maxVoices", 256));
+    }
+
+    static StealPolicy configuredStealPolicy() {
+        return StealPolicy.parse(System.getProperty("visualmidi.voiceStealing", "oldest"));
+    }
+
+    /** Visualizer channel index of a channel message, taking its port tag into account. */
+    public int channelIndex(ShortMessage sm) {
+        return channelIndex(sm, channels.length);
+    }
+
+    private static int channelIndex(ShortMessage sm, int count) {
+        int index = MidiPorts.portOf(sm) * CHANNELS_PER_PORT + sm.getChannel();
+        return index < count ? index : sm.getChannel();
+    }
+
+    public void setSampleRate(double hz) {
+        sampleRate = clampRate(hz);
+    }
+
+    public double getSampleRate() { return sampleRate; }
+
+    private static double clampRate(double hz) {
+        return Math.max(1000.0, Math.min(48000.0, hz));
+    }
+
+    /** Waveform history kept per channel, in samples; set to what the widest view reads. */
+    public void setHistoryLength(int samples) {
+        historyLength = Math.max(MIN_HISTORY, Math.min(MAX_HISTORY, samples));
+    }
+
+    public int getHistoryLength() { return historyLength; }
+
+    public void setVoiceLimits(int perChannel, int total) {
+        maxVoicesPerChannel = Math.max(1, perChannel);
+        maxVoices = Math.max(1, total);
+    }
+
+    public int getMaxVoicesPerChannel() { return maxVoicesPerChannel; }
+
+    public int getMaxVoices() { return maxVoices; }
+
+    public void setStealPolicy(StealPolicy policy) { stealPolicy = policy; }
+
+    public StealPolicy getStealPolicy() { return stealPolicy; }
+
+    /** Voices currently sounding across all channels. */
+    public int getVoiceCount() { return voiceCount.get(); }
+
+    /** Voices cut short by either cap since this visualizer was created. */
+    public long getStolenVoices() { return stolenVoices.get(); }
+
+    /** Display label: "01".."16" for single-port files, "A01".."P16" once several ports are in use. */
+    public String channelLabel(int index) {
+        int ch = index % CHANNELS_PER_PORT + 1;
+        if (channels.length <= CHANNELS_PER_PORT) return String.format("%02d", ch);
+        return String.format("%c%02d", (char) ('A' + index / CHANNELS_PER_PORT), ch);
+    }
+
+    /** Delay between an event arriving and the output sounding it; visuals follow the sound, not the event. */
+    public void setOutputLatencyMicros(long micros) {
+        latencyNanos = Math.max(0, micros) * 1000L;
+    }
+
+    public long getOutputLatencyMicros() {
+        return latencyNanos / 1000L;
+    }
+
+    /**
+     * Schedules an event for when the output plays it. timeStamp is the sender's clock in microseconds,
+     * or -1 for "now" as the sequencer sends; due events are applied by the next {@link #applyDueEvents}
+     * or the next event to arrive.
+     */
+    public void onMidi(MidiMessage message, long timeStamp) {
+        long latency = latencyNanos;
+        // the fast path still has to hold the drain lock, or it could overtake events a drainer is applying
+        if (latency == 0 && timeStamp < 0 && queued == 0 && drainLock.tryLock()) {
+            try {
+                if (queued == 0) {
+                    apply(message);
+                    return;
+                }
+            } finally {
+                drainLock.unlock();
+            }
+        }
+        long now = System.nanoTime();
+        long due = now + latency;
+        while (true) {
+            synchronized (pending) {
+                if (timeStamp >= 0) {
+                    clockOffsetMicros = Math.min(clockOffsetMicros, now / 1000L - timeStamp);
+                    due = (timeStamp + clockOffsetMicros) * 1000L + latency;
+                }
+                if (queued < QUEUE_CAPACITY) {
+                    dueNanos[tail] = due;
+                    pending[tail] = message;
+                    tail = (tail + 1) & (QUEUE_CAPACITY - 1);
+                    queued++;
+                    break;
+                }
+            }
+            applyOldest();
+        }
+        applyDueEvents();
+    }
+
+    // Queue full: the oldest event goes out early rather than being dropped. Waits for the drain lock
+    // instead of trying it, since the event cannot be queued until there is room.
+    private void applyOldest() {
+        drainLock.lock();
+        try {
+            MidiMessage message;
+            synchronized (pending) {
+                if (queued < QUEUE_CAPACITY) return; // a drainer made room meanwhile
+                message = pending[head];
+                pending[head] = null;
+                head = (head + 1) & (QUEUE_CAPACITY - 1);
+                queued--;
+            }
+            apply(message);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /** Applies every queued event whose time has come; returns at once if another thread is at it. */
+    public void applyDueEvents() {
+        if (queued == 0 || !drainLock.tryLock()) return;
+        try {
+            long now = System.nanoTime();
+            while (true) {
+                MidiMessage message;
+                synchronized (pending) {
+                    if (queued == 0 || dueNanos[head] - now > 0) return;
+                    message = pending[head];
+                    pending[head] = null;
+                    head = (head + 1) & (QUEUE_CAPACITY - 1);
+                    queued--;
+                }
+                apply(message);
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private void apply(MidiMessage message) {
+        if (message instanceof ShortMessage sm) {
+            // a system message's low nibble is part of its status, so getCommand() reads 0xFF as 0xF0
+            if (sm.getStatus() == ShortMessage.SYSTEM_RESET) {
+                systemReset();
+                return;
+            }
+            ChannelState[] channels = this.channels;
+            int ch = channelIndex(sm, channels.length);
+            switch (sm.getCommand()) {
+                case ShortMessage.NOTE_ON -> {
+                    int note = sm.getData1();
+                    int vel = sm.getData2();
+                    if (vel == 0) {
+                        channels[ch].noteOff(note);
+                    } else if (isAudible(ch)) { // muted channels start no voices, so they cost nothing to draw
+                        startVoice(channels, ch, note, vel);
+                    }
+                }
+                case ShortMessage.NOTE_OFF -> channels[ch].noteOff(sm.getData1());
+                case ShortMessage.PROGRAM_CHANGE -> channels[ch].setProgram(sm.getData1());
+                case ShortMessage.CONTROL_CHANGE -> channels[ch].controlChange(sm.getData1(), sm.getData2());
+            }
+        } else if (message instanceof SysexMessage sx && isResetSysex(sx.getData())) {
+            systemReset();
+        }
+    }
+
+    /** Silences every channel and wipes its history, e.g. on stop, seek or when a new file is loaded. */
+    public void clearVoices() {
+        // under the drain lock, so an event a drainer has already taken off the queue cannot start a
+        // voice after the clear, with its note-off flushed along with the rest of the queue
+        drainLock.lock();
+        try {
+            synchronized (pending) {
+                Arrays.fill(pending, null);
+                head = tail = queued = 0;
+                clockOffsetMicros = Long.MAX_VALUE;
+            }
+            for (ChannelState c : channels) c.clear();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    // GM/GS/XG reset: every part back to silence, program 0 and pedal up
+    private void systemReset() {
+        for (ChannelState c : channels) {
+            c.clear();
+            c.setProgram(0);
+        }
+    }
+
+    /** GM System On/Off, GM2 System On, GS Reset (or SC-88 mode set) and XG System On; data excludes the F0 status. */
+    static boolean isResetSysex(byte[] d) {
+        if (d.length >= 4 && (d[0] & 0xFF) == 0x7E && d[2] == 0x09) {
+            return d[3] >= 0x01 && d[3] <= 0x03;
+        }
+        if (d.length >= 7 && (d[0] & 0xFF) == 0x41 && d[2] == 0x42 && d[3] == 0x12) {
+            return (d[4] == 0x40 || d[4] == 0x00) && d[5] == 0x00 && d[6] == 0x7F;
+        }
+        if (d.length >= 7 && (d[0] & 0xFF) == 0x43 && (d[1] & 0xF0) == 0x10 && d[2] == 0x4C) {
+            return d[3] == 0x00 && d[4] == 0x00 && d[5] == 0x7E && d[6] == 0x00;
+        }
+        return false;
+    }
+
+    private void startVoice(ChannelState[] channels, int ch, int note, int vel) {
+        ChannelState target = channels[ch];
+        if (voiceCount.get() >= maxVoices && !target.isSounding(note)) {
+            // global cap: the channel holding the most voices gives one up, chosen by the same policy;
+            // only one channel is locked at a time
+            ChannelState busiest = target;
+            for (ChannelState c : channels) {
+                if (c.getVoiceCount() > busiest.getVoiceCount()) busiest = c;
+            }
+            busiest.stealVoice(null);
+        }
+        target.noteOn(note, vel);
+    }
+
+    public ChannelState getChannel(int ch) {
+        ChannelState[] chs = channels;
+        return ch < chs.length ? chs[ch] : chs[ch % CHANNELS_PER_PORT]; // a view may briefly outlive a shrink
+    }
+
+    public void setMute(int ch, boolean m) {
+        synchronized (this) {
+            if (ch >= mute.length || mute[ch] == m) return;
+            boolean[] next = mute.clone();
+            next[ch] = m;
+            mute = next;
+            updateAudible();
+        }
+        notifyAudible();
+    }
+
+    public void setSolo(int ch, boolean s) {
+        synchronized (this) {
+            if (ch >= solo.length || solo[ch] == s) return;
+            boolean[] next = solo.clone();
+            next[ch] = s;
+            solo = next;
+            updateAudible();
+        }
+        notifyAudible();
+    }
+
+    public boolean isMuted(int ch) {
+        boolean[] m = mute;
+        return ch < m.length && m[ch];
+    }
+
+    public boolean isSolo(int ch) {
+        boolean[] s = solo;
+        return ch < s.length && s[ch];
+    }
+
+    public boolean anySolo() {
+        for (boolean s : solo) if (s) return true;
+        return false;
+    }
+
+    /** Whether a channel sounds under the current mute and solo: not muted, and soloed if anything is. */
+    public boolean isAudible(int ch) {
+        long[] a = audible;
+        return ch >= a.length << 6 || (a[ch >>> 6] >>> ch & 1) != 0;
+    }
+
+    /** The allow-mask, bit ch set when channel ch sounds; replaced on every change, never modified. */
+    public long[] getAudibleMask() {
+        return audible;
+    }
+
+    /** Called after a mute or solo change, outside the visualizer's lock. */
+    public void setAudibleListener(Runnable listener) {
+        audibleListener = listener;
+    }
+
+    // Rebuilds the mask; channels that just went quiet drop their voices, as their sound is cut too
+    private synchronized void updateAudible() {
+        boolean[] m = mute, s = solo;
+        boolean anySolo = anySolo();
+        long[] old = audible;
+        long[] next = new long[(m.length + 63) >>> 6];
+        for (int ch = 0; ch < m.length; ch++) {
+            if (!m[ch] && (!anySolo || s[ch])) next[ch >>> 6] |= 1L << ch;
+        }
+        audible = next;
+        ChannelState[] chs = channels;
+        for (int ch = 0; ch < chs.length; ch++) {
+            boolean was = ch >= old.length << 6 || (old[ch >>> 6] >>> ch & 1) != 0;
+            if (was && (next[ch >>> 6] >>> ch & 1) == 0) chs[ch].clear();
+        }
+    }
+
+    private void notifyAudible() {
+        Runnable l = audibleListener;
+        if (l != null) l.run();
+    }
+
+    public static class ChannelState {
+        private final MidiVisualizer owner;
+        private static final int MAX_BLOCK = 512; // samples rendered per block; longer advances take several
+        // wall-clock time caught up per advance at most, so a stalled caller resumes without a burst of synthesis
+        private static final double MAX_ELAPSED_SECONDS = 0.1;
+        private float[] buffer; // waveform history, resized to the owner's history length
+        private final float[] mix = new float[MAX_BLOCK];
+        private final float[] voice = new float[MAX_BLOCK];
+        private int writePos = 0;
+        private final Map<Integer, ActiveNote> activeNotes = new HashMap<>();
+        private int program = 0;
+        private String instrumentName = GMInstruments.getName(0);
+        private double phaseAccum = 0;
+        private double lastTimeNs = System.nanoTime();
+        // Cheap, lock-free activity signals for views deciding whether to repaint
+        private volatile int version = 0;
+        private volatile boolean active = false;
+        private int silentSamples;
+        private boolean historyStale = false; // levels advanced analytically since the last synthesis
+        private volatile ChannelFrame frame = ChannelFrame.EMPTY;
+        private long noteSerial = 0;
+        private volatile int voices = 0;
+        private volatile long stolen = 0;
+        private boolean sustain = false;
+
+        ChannelState(MidiVisualizer owner) {
+            this.owner = owner;
+            this.buffer = new float[owner.historyLength];
+            this.silentSamples = buffer.length;
+        }
+
+        public synchronized void noteOn(int note, int velocity) {
+            ActiveNote an = new ActiveNote(note, velocity, noteSerial++);
+            if (activeNotes.put(note, an) == null) {
+                voiceAdded();
+                if (voices > owner.maxVoicesPerChannel) stealVoice(an);
+            }
+            active = true;
+            version++;
+        }
+
+        public synchronized void noteOff(int note) {
+            ActiveNote an = activeNotes.get(note);
+            if (an == null) return;
+            if (sustain) {
+                an.sustained = true; // released by the pedal later
+                return;
+            }
+            activeNotes.remove(note);
+            voiceRemoved();
+            version++;
+        }
+
+        public synchronized void controlChange(int controller, int value) {
+            switch (controller) {
+                case CC_SUSTAIN -> setSustain(value >= 64);
+                case CC_ALL_SOUND_OFF -> removeVoices(false);
+                case CC_RESET_ALL_CONTROLLERS -> setSustain(false);
+                case CC_ALL_NOTES_OFF, 124, 125, 126, 127 -> {
+                    if (sustain) {
+                        for (ActiveNote an : activeNotes.values()) an.sustained = true;
+                    } else {
+                        removeVoices(false);
+                    }
+                }
+                default -> { }
+            }
+        }
+
+        private void setSustain(boolean down) {
+            if (sustain == down) return;
+            sustain = down;
+            if (!down) removeVoices(true);
+        }
+
+        // Drops all voices, or only the ones held by the pedal
+        private void removeVoices(boolean sustainedOnly) {
+            Iterator<ActiveNote> it = activeNotes.values().iterator();
+            boolean changed = false;
+            while (it.hasNext()) {
+                if (!it.next().sustained && sustainedOnly) continue;
+                it.remove();
+                voiceRemoved();
+                changed = true;
+            }
+            if (changed) version++;
+        }
+
+        /** Drops every voice, releases the pedal and zeroes the history, so the channel goes idle at once. */
+        public synchronized void clear() {
+            removeVoices(false);
+            sustain = false;
+            Arrays.fill(buffer, 0f);
+            silentSamples = buffer.length;
+            active = false;
+            version++;
+        }
+
+        synchronized boolean isSounding(int note) {
+            return activeNotes.containsKey(note);
+        }
+
+        /** Drops one voice other than keep, picked by the owner's steal policy; false if there was none. */
+        synchronized boolean stealVoice(ActiveNote keep) {
+            StealPolicy policy = owner.stealPolicy;
+            ActiveNote victim = null;
+            for (ActiveNote an : activeNotes.values()) {
+                if (an != keep && (victim == null || stealsBefore(policy, an, victim))) victim = an;
+            }
+            if (victim == null) return false;
+            activeNotes.remove(victim.note);
+            voiceRemoved();
+            stolen++;
+            owner.stolenVoices.incrementAndGet();
+            version++;
+            return true;
+        }
+
+        private static boolean stealsBefore(StealPolicy policy, ActiveNote a, ActiveNote b) {
+            switch (policy) {
+                case QUIETEST -> {
+                    double la = a.loudness(), lb = b.loudness();
+                    if (la != lb) return la < lb;
+                }
+                case LOWEST_VELOCITY -> {
+                    if (a.velocity != b.velocity) return a.velocity < b.velocity;
+                }
+                default -> { }
+            }
+            return a.serial < b.serial;
+        }
+
+        private void voiceAdded() {
+            voices++;
+            owner.voiceCount.incrementAndGet();
+        }
+
+        private void voiceRemoved() {
+            voices--;
+            owner.voiceCount.decrementAndGet();
+        }
+
+        /** Writes the keys currently held or sustained as a 128-bit set: bit k of bits[k >> 6]. */
+        public synchronized void activeNotes(long[] bits) {
+            bits[0] = 0;
+            bits[1] = 0;
+            for (int note : activeNotes.keySet()) bits[note >> 6] |= 1L << (note & 63);
+        }
+
+        /** Voices currently sounding on this channel. */
+        public int getVoiceCount() { return voices; }
+
+        /** Voices of this channel cut short by a voice cap. */
+        public long getStolenVoices() { return stolen; }
+
+        public synchronized void setProgram(int program) {
+            this.program = program;
+            this.instrumentName = GMInstruments.getName(program);
+            version++;
+        }
+
+        /** Incremented on every note or program change. */
+        public int getVersion() { return version; }
+
+        /**
+         * True while notes are sounding or the waveform history still holds non-silent samples,
+         * i.e. while a view of this channel can still change without a new event arriving.
+         */
+        public boolean isActive() { return active; }
+
+        /** Capacity of the waveform history in samples. */
+        public int getHistoryLength() { return owner.historyLength; }
+
+        /** Latest analysis result; replaced as a whole by {@link ChannelAnalyzer}, never mutated. */
+        public ChannelFrame getFrame() { return frame; }
+
+        void publish(ChannelFrame frame) { this.frame = frame; }
+
+        public synchronized int getProgram() { return program; }
+
+        public synchronized String getInstrumentName() {
+            return instrumentName;
+        }
+
+        public synchronized float[] getRecentWaveform(int length) {
+            // advance synthesis a bit to keep buffer live
+            int n = elapsedSamples(owner.sampleRate);
+            if (n > 0) advance(n);
+            if (length > buffer.length) length = buffer.length;
+            float[] out = new float[length];
+            readRecent(out);
+            return out;
+        }
+
+        /** Copies the most recent dst.length samples (at most the history length) without advancing. */
+        public synchronized void readRecent(float[] dst) {
+            resizeHistory();
+            int length = Math.min(dst.length, buffer.length);
+            int start = (writePos - length + buffer.length) % buffer.length;
+            for (int i = 0; i < length; i++) {
+                dst[i] = buffer[(start + i) % buffer.length];
+            }
+        }
+
+        private int elapsedSamples(double sampleRate) {
+            double now = System.nanoTime();
+            double dt = (now - lastTimeNs) / 1_000_000_000.0; // seconds
+            if (dt <= 0) return 0;
+            lastTimeNs = now;
+            return (int) Math.max(1, Math.round(Math.min(MAX_ELAPSED_SECONDS, dt) * sampleRate));
+        }
+
+        /**
+         * Level-only advance for views that draw meters but no samples: moves every envelope on by the
+         * elapsed time in closed form, without synthesizing anything, and writes {peak, rms} of the
+         * channel's mix to out. Voices are treated as uncorrelated sines, so amplitudes bound the peak
+         * and powers add up to the RMS.
+         */
+        public synchronized void advanceLevels(float[] out) {
+            double rate = owner.sampleRate;
+            int n = elapsedSamples(rate);
+            double decay = decayPerSample(rate);
+            double sum = 0, sumSquares = 0;
+            Iterator<ActiveNote> it = activeNotes.values().iterator();
+            while (it.hasNext()) {
+                ActiveNote an = it.next();
+                an.skip(n, rate, decay);
+                if (an.isFinished()) {
+                    it.remove();
+                    voiceRemoved();
+                    continue;
+                }
+                double level = an.loudness();
+                sum += level;
+                sumSquares += level * level;
+            }
+            historyStale = true;
+            active = !activeNotes.isEmpty();
+            out[0] = (float) Math.min(1.0, sum); // the mix is clipped at 1
+            out[1] = (float) Math.min(out[0], Math.sqrt(sumSquares / 2));
+        }
+
+        // Keeps the envelope's time constant independent of the synthesis rate
+        private static double decayPerSample(double sampleRate) {
+            return Math.pow(ActiveNote.DECAY, DEFAULT_SAMPLE_RATE / sampleRate);
+        }
+
+        // Adopts a new history length, keeping the most recent samples; also drops history made stale by level-only advances
+        private void resizeHistory() {
+            int length = owner.historyLength;
+            if (historyStale) {
+                historyStale = false;
+                buffer = new float[length];
+                writePos = 0;
+                silentSamples = length;
+                return;
+            }
+            if (buffer.length == length) return;
+            float[] next = new float[length];
+            int keep = Math.min(length, buffer.length);
+            for (int i = 0; i < keep; i++) {
+                next[length - keep + i] = buffer[(writePos - keep + i + buffer.length) % buffer.length];
+            }
+            buffer = next;
+            writePos = 0;
+            silentSamples = Math.min(silentSamples, length);
+        }
+
+        /**
+         * Synthesizes exactly {@code samples} samples into the history, independent of wall-clock time.
+         * The live path calls this with the elapsed time; offline analysis drives it frame by frame.
+         */
+        public synchronized void advance(int samples) {
+            resizeHistory();
+            while (samples > MAX_BLOCK) {
+                renderBlock(MAX_BLOCK);
+                samples -= MAX_BLOCK;
+            }
+            if (samples > 0) renderBlock(samples);
+        }
+
+        private void renderBlock(int samples) {
+            double sampleRate = owner.sampleRate;
+            double decay = decayPerSample(sampleRate);
+            // render each voice as a block, then mix and clip whole blocks with the signal kernels
+            Arrays.fill(mix, 0, samples, 0f);
+            Iterator<ActiveNote> it = activeNotes.values().iterator();
+            while (it.hasNext()) {
+                ActiveNote an = it.next();
+                an.render(voice, samples, sampleRate, decay);
+                SignalKernels.accumulate(mix, voice, samples);
+                if (an.isFinished()) {
+                    it.remove();
+                    voiceRemoved();
+                }
+            }
+            // soft clip
+            SignalKernels.clip(mix, samples);
+            int first = Math.min(samples, buffer.length - writePos);
+            System.arraycopy(mix, 0, buffer, writePos, first);
+            System.arraycopy(mix, first, buffer, 0, samples - first);
+            writePos = (writePos + samples) % buffer.length;
+
+            int lastSound = samples - 1;
+            while (lastSound >= 0 && mix[lastSound] == 0f) lastSound--;
+            silentSamples = lastSound < 0 ? Math.min(silentSamples + samples, buffer.length) : samples - 1 - lastSound;
+            active = !activeNotes.isEmpty() || silentSamples < buffer.length;
+        }
+    }
+
+    private static class ActiveNote {
+        private static final double DECAY = 0.9995; // per sample at the default rate
+        private final int note;
+        private final int velocity;
+        private final long serial; // start order within the channel
+        private final double freq;
+        private double phase = 0;
+        private double amp;
+        private double env = 1.0;
+        private int lifeSamples = 0;
+        private boolean sustained = false; // key released while the pedal was down
+
+        ActiveNote(int note, int velocity, long serial) {
+            this.note = note;
+            this.velocity = velocity;
+            this.serial = serial;
+            this.freq = 440.0 * Math.pow(2, (note - 69) / 12.0);
+            this.amp = velocity / 127.0 * 0.3; // modest amplitude
+        }
+
+        double nextSample(double sampleRate, double decay) {
+            lifeSamples++;
+            // simple AD envelope: first 10ms attack, then decay depending on time
+            double attackSamples = sampleRate * 0.01;
+            if (lifeSamples < attackSamples) {
+                env = lifeSamples / attackSamples;
+            } else {
+                env = Math.max(0.0, env * decay); // slow decay
+            }
+            phase += (2 * Math.PI * freq) / sampleRate;
+            double s = Math.sin(phase) * amp * env;
+            return s;
+        }
+
+        /** Renders up to {@code n} samples into out; samples after the voice has finished are silent. */
+        void render(float[] out, int n, double sampleRate, double decay) {
+            int i = 0;
+            for (; i < n && !isFinished(); i++) out[i] = (float) nextSample(sampleRate, decay);
+            Arrays.fill(out, i, n, 0f);
+        }
+
+        /** Advances the envelope and phase by n samples in closed form, as n calls to nextSample would. */
+        void skip(int n, double sampleRate, double decay) {
+            if (n <= 0) return;
+            double attackSamples = sampleRate * 0.01;
+            // samples still on the attack ramp: those whose life count stays below attackSamples
+            int attack = (int) Math.max(0, Math.min(n, Math.ceil(attackSamples - lifeSamples) - 1));
+            if (attack > 0) env = (lifeSamples + attack) / attackSamples;
+            env *= Math.pow(decay, n - attack);
+            lifeSamples += n;
+            phase = (phase + 2 * Math.PI * freq * n / sampleRate) % (2 * Math.PI);
+        }
+
+        double loudness() {
+            return amp * env;
+        }
+
+        boolean isFinished() {
+            return env < 0.0005;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package cn.moerain.visualmidi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays MIDI files back to back. While one plays, the next ones are parsed, their soundbanks read and
+ * their analysis caches opened on a background thread, so moving on at the end of a song only swaps
+ * in what is ready and restarts the sequencer from its own event thread, with no parsing or file reads
+ * in between.
+ * <p>
+ * This is not gapless: the JDK sequencer only reports the end once it has stopped, and stopping sends
+ * all notes off, sustain off and reset controllers on every channel, so the last notes' tails are cut
+ * (in the sound and in the visualizer) and the next song starts one sequencer restart later. Swapping
+ * the sequence while it still runs does not help, it silences every channel the same way.
+ * <p>
+ * Prefetching is bounded twice: at most {@code -Dvisualmidi.prefetchDepth} entries ahead (default 2),
+ * and their estimated heap, parsed events plus overview plus soundbank samples, within
+ * {@code -Dvisualmidi.prefetchBudget} bytes (default 64 MiB). An entry that does not fit is loaded
+ * when its turn comes, like a plain open.
+ */
+public final class Playlist implements AutoCloseable {
+    private static final int DEFAULT_DEPTH = 2;
+    private static final long DEFAULT_BUDGET = 64L << 20;
+    // an SMF event takes about three bytes on disk with running status
+    private static final long FILE_BYTES_PER_EVENT = 3;
+
+    /** One song; soundbank null plays it with whatever soundbank is loaded. */
+    public record Entry(File midi, File soundbank) {}
+
+    public interface Listener {
+        void trackChanged(int index, Entry entry);
+
+        default void finished() {}
+
+        default void failed(Entry entry, Exception e) {}
+    }
+
+    private static final class Prefetch {
+        final CompletableFuture<PreparedSequence> future;
+        long bytes;
+
+        Prefetch(CompletableFuture<PreparedSequence> future, long bytes) {
+            this.future = future;
+            this.bytes = bytes;
+        }
+    }
+
+    private final MidiEngine engine;
+    private final List<Entry> entries;
+    private final int depth;
+    private final long budget;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "playlist-prefetch");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final Map<Integer, Prefetch> ahead = new LinkedHashMap<>();
+    private long reserved;
+    private int current = -1;
+    private volatile Listener listener;
+
+    public Playlist(MidiEngine engine, List<Entry> entries) {
+        this(engine, entries, Integer.getInteger("visualmidi.prefetchDepth", DEFAULT_DEPTH),
+                Long.getLong("visualmidi.prefetchBudget", DEFAULT_BUDGET));
+    }
+
+    public Playlist(MidiEngine engine, List<Entry> entries, int depth, long budgetBytes) {
+        this.engine = engine;
+        this.entries = List.copyOf(entries);
+        this.depth = Math.max(0, depth);
+        this.budget = Math.max(0, budgetBytes);
+        engine.setSequenceEndListener(this::advance);
+    }
+
+    /**
+     * Reads a playlist file: one MIDI path per line, relative to the playlist, {@code #} starts a comment,
+     * and {@code #SOUNDFONT:path} sets the soundbank for the entries that follow (an empty path goes back
+     * to the loaded one). Plain M3U files read as-is.
+     */
+    public static List<Entry> read(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        List<Entry> out = new ArrayList<>();
+        File bank = null;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.strip();
+            if (line.regionMatches(true, 0, "#SOUNDFONT:", 0, 11)) {
+                String path = line.substring(11).strip();
+                bank = path.isEmpty() ? null : dir.resolve(path).toFile();
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                out.add(new Entry(dir.resolve(line).toFile(), bank));
+            }
+        }
+        return out;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public synchronized int getCurrentIndex() {
+        return current;
+    }
+
+    /** Estimated heap held by prefetched entries. */
+    public synchronized long getPrefetchedBytes() {
+        return reserved;
+    }
+
+    /** Loads entry index, using its prefetched state if it is ready, and starts playing it. */
+    public synchronized void play(int index) throws Exception {
+        PreparedSequence prepared = take(index);
+        engine.load(prepared, false);
+        current = index;
+        engine.play();
+        prefetch();
+        notifyChanged();
+    }
+
+    public synchronized void next() throws Exception {
+        if (current + 1 < entries.size()) play(current + 1);
+    }
+
+    public synchronized void previous() throws Exception {
+        if (current > 0) play(current - 1);
+    }
+
+    // End of the current song, on the sequencer's event thread (already stopped and silenced): start the next one
+    private synchronized void advance() {
+        while (current + 1 < entries.size()) {
+            int index = current + 1;
+            try {
+                engine.load(take(index), true);
+                current = index;
+                engine.play();
+                prefetch();
+                notifyChanged();
+                return;
+            } catch (Exception e) {
+                current = index; // skip the broken entry and try the one after
+                Listener l = listener;
+                if (l != null) l.failed(entries.get(index), e);
+            }
+        }
+        Listener l = listener;
+        if (l != null) l.finished();
+    }
+
+    private void notifyChanged() {
+        Listener l = listener;
+        if (l != null) l.trackChanged(current, entries.get(current));
+    }
+
+    // Prefetched state of entry index if there is any (waiting for it if it is being prepared), else prepared here
+    private PreparedSequence take(int index) throws Exception {
+        Prefetch p = ahead.remove(index);
+        if (p != null) {
+            reserved -= p.bytes;
+            try {
+                return p.future.get();
+            } catch (ExecutionException | CancellationException e) {
+                // prepare it again below, so the failure surfaces from the live path
+            }
+        }
+        return prepare(entries.get(index));
+    }
+
+    // Keeps the next depth entries in flight within the budget and drops everything else
+    private void prefetch() {
+        Iterator<Map.Entry<Integer, Prefetch>> it = ahead.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Prefetch> e = it.next();
+            if (e.getKey() <= current || e.getKey() > current + depth) {
+                e.getValue().future.cancel(false);
+                reserved -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+        for (int i = current + 1; i <= current + depth && i < entries.size(); i++) {
+            if (ahead.containsKey(i)) continue;
+            Entry entry = entries.get(i);
+            long estimate = estimate(entry);
+            if (reserved + estimate > budget) break;
+            Prefetch p = new Prefetch(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return prepare(entry);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, prefetcher), estimate);
+            ahead.put(i, p);
+            reserved += estimate;
+            int index = i;
+            // replace the estimate with what the parsed entry actually holds
+            p.future.thenAccept(prepared -> {
+                synchronized (this) {
+                    if (ahead.get(index) != p) return;
+                    long actual = prepared.heapBytes();
+                    reserved += actual - p.bytes;
+                    p.bytes = actual;
+                }
+            });
+        }
+    }
+
+    private long estimate(Entry entry) {
+        long bytes = entry.midi().length() / FILE_BYTES_PER_EVENT * PreparedSequence.EVENT_BYTES;
+        if (entry.soundbank() != null && !entry.soundbank().equals(engine.getSoundbankFile())) {
+            bytes += entry.soundbank().length();
+        }
+        return bytes;
+    }
+
+    private PreparedSequence prepare(Entry entry) throws Exception {
+        PreparedSequence prepared = PreparedSequence.parse(entry.midi());
+        File bankFile = entry.soundbank();
+        if (bankFile != null && !bankFile.equals(engine.getSoundbankFile())) {
+            // each entry reads and counts its own copy, so nothing is held outside the budget
+            prepared = prepared.withSoundbank(bankFile, MidiEngine.readSoundbank(bankFile), bankFile.length());
+        }
+        if (MidiEngine.ANALYSIS_CACHE) {
+            try {
+                byte[] hash = AnalysisCache.hash(entry.midi());
+                AnalysisCache cache = AnalysisCache.open(AnalysisCache.cacheFile(hash), hash, prepared.getChannelCount());
+                if (cache != null) {
+                    prepared.getOverview().fill(cache);
+                    prepared = prepared.withCache(cache);
+                }
+            } catch (IOException e) {
+                // the engine builds or skips it when the entry plays
+            }
+        }
+        return prepared;
+    }
+
+    @Override
+    public synchronized void close() {
+        engine.setSequenceEndListener(null);
+        for (Prefetch p : ahead.values()) p.future.cancel(false);
+        ahead.clear();
+        reserved = 0;
+        prefetcher.shutdownNow();
+    }
+}
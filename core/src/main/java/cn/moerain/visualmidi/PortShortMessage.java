@@ -0,0 +1,27 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * A channel message tagged with the MIDI port (meta event 0x21) of the track it came from.
+ * The sequencer flattens all tracks onto one transmitter, so without the tag every port
+ * collapses onto the same 16 channels by the time a message reaches {@link TeeReceiver}.
+ * Output devices still see an ordinary {@link ShortMessage}.
+ */
+public class PortShortMessage extends ShortMessage {
+    private final int port;
+
+    public PortShortMessage(ShortMessage source, int port) {
+        super(source.getMessage());
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public Object clone() {
+        return new PortShortMessage(this, port);
+    }
+}
@@ -0,0 +1,135 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A MIDI file with the slow parts of loading already done: parsed, ports tagged, tempo map extracted,
+ * song overview allocated and, when a {@link Playlist} prepared it ahead, its soundbank read and its analysis
+ * cache opened. {@link MidiEngine#load} only swaps it in.
+ */
+public final class PreparedSequence {
+    // rough heap cost of one parsed event: the MidiEvent, its message and the message bytes
+    static final long EVENT_BYTES = 96;
+
+    /**
+     * One track: its name (meta 0x03, may be empty) and the visualizer channels its channel messages go
+     * to as a bitset.
+     */
+    public record TrackInfo(int index, String name, long[] channels) {
+        public boolean usesChannel(int ch) {
+            return ch < channels.length << 6 && (channels[ch >>> 6] >>> ch & 1) != 0;
+        }
+
+        public boolean hasChannels() {
+            for (long word : channels) if (word != 0) return true;
+            return false;
+        }
+    }
+
+    private final File file;
+    private final Sequence sequence;
+    private final int channelCount;
+    private final TempoMap tempoMap;
+    private final List<TrackInfo> tracks;
+    private final EnvelopePyramid overview;
+    private final File soundbankFile;
+    private final Soundbank soundbank;
+    private final long soundbankBytes;
+    private final AnalysisCache cache;
+
+    private PreparedSequence(File file, Sequence sequence, int channelCount, TempoMap tempoMap, List<TrackInfo> tracks,
+                             EnvelopePyramid overview,
+                             File soundbankFile, Soundbank soundbank, long soundbankBytes, AnalysisCache cache) {
+        this.file = file;
+        this.sequence = sequence;
+        this.channelCount = channelCount;
+        this.tempoMap = tempoMap;
+        this.tracks = tracks;
+        this.overview = overview;
+        this.soundbankFile = soundbankFile;
+        this.soundbank = soundbank;
+        this.soundbankBytes = soundbankBytes;
+        this.cache = cache;
+    }
+
+    /** Reads and port-tags a MIDI file. */
+    public static PreparedSequence parse(File midiFile) throws InvalidMidiDataException, IOException {
+        Sequence seq = MidiSystem.getSequence(midiFile);
+        int ports = MidiPorts.countPorts(seq);
+        if (ports > 1) seq = MidiPorts.tagPorts(seq);
+        int channels = Math.min(ports, MidiPorts.MAX_PORTS) * MidiVisualizer.CHANNELS_PER_PORT;
+        TempoMap tempo = TempoMap.of(seq);
+        return new PreparedSequence(midiFile, seq, channels, tempo, scanTracks(seq, channels),
+                new EnvelopePyramid(channels, tempo.getLengthMicros()), null, null, 0, null);
+    }
+
+    private static List<TrackInfo> scanTracks(Sequence seq, int channelCount) {
+        Track[] tracks = seq.getTracks();
+        TrackInfo[] out = new TrackInfo[tracks.length];
+        for (int t = 0; t < tracks.length; t++) {
+            String name = "";
+            long[] channels = new long[(channelCount + 63) >>> 6];
+            for (int i = 0, n = tracks[t].size(); i < n; i++) {
+                MidiMessage msg = tracks[t].get(i).getMessage();
+                if (msg instanceof ShortMessage sm && sm.getCommand() < 0xF0) {
+                    // the visualizer's channel index: port-tagged, folded onto port 0 past the channel count
+                    int ch = MidiPorts.portOf(sm) * MidiVisualizer.CHANNELS_PER_PORT + sm.getChannel();
+                    if (ch >= channelCount) ch = sm.getChannel();
+                    channels[ch >>> 6] |= 1L << ch;
+                } else if (msg instanceof MetaMessage meta && meta.getType() == 0x03 && name.isEmpty()) {
+                    name = new String(meta.getData(), StandardCharsets.ISO_8859_1).strip();
+                }
+            }
+            out[t] = new TrackInfo(t, name, channels);
+        }
+        return List.of(out);
+    }
+
+    /** The same sequence, to be played with the given soundbank; bytes is what holding the bank costs, 0 if shared. */
+    PreparedSequence withSoundbank(File file, Soundbank bank, long bytes) {
+        return new PreparedSequence(this.file, sequence, channelCount, tempoMap, tracks, overview, file, bank, bytes, cache);
+    }
+
+    /** The same sequence with its analysis cache, the overview already filled from it. */
+    PreparedSequence withCache(AnalysisCache cache) {
+        return new PreparedSequence(file, sequence, channelCount, tempoMap, tracks, overview, soundbankFile, soundbank, soundbankBytes, cache);
+    }
+
+    public File getFile() { return file; }
+
+    public Sequence getSequence() { return sequence; }
+
+    public int getChannelCount() { return channelCount; }
+
+    public TempoMap getTempoMap() { return tempoMap; }
+
+    public List<TrackInfo> getTracks() { return tracks; }
+
+    public EnvelopePyramid getOverview() { return overview; }
+
+    /** Soundbank to switch to, null to keep the current one. */
+    public Soundbank getSoundbank() { return soundbank; }
+
+    public File getSoundbankFile() { return soundbankFile; }
+
+    /** Levels of the file if its cache was already built, else null. */
+    public AnalysisCache getCache() { return cache; }
+
+    /** Estimated heap held by this item: parsed events, overview and an unshared soundbank. */
+    public long heapBytes() {
+        long events = 0;
+        for (Track t : sequence.getTracks()) events += t.size();
+        return events * EVENT_BYTES + overview.sizeBytes() + tempoMap.size() * 20L + soundbankBytes;
+    }
+}
@@ -0,0 +1,41 @@
+package cn.moerain.visualmidi;
+
+/** Portable fallback for {@link SignalKernels}. */
+final class ScalarKernels implements SignalKernels.Impl {
+    @Override
+    public void accumulate(float[] dst, float[] src, int len) {
+        for (int i = 0; i < len; i++) dst[i] += src[i];
+    }
+
+    @Override
+    public void clip(float[] a, int len) {
+        for (int i = 0; i < len; i++) {
+            float s = a[i];
+            if (s > 1) a[i] = 1; else if (s < -1) a[i] = -1;
+        }
+    }
+
+    @Override
+    public float peakAbs(float[] a, int off, int len) {
+        float peak = 0f;
+        for (int i = off, end = off + len; i < end; i++) {
+            float av = Math.abs(a[i]);
+            if (av > peak) peak = av;
+        }
+        return peak;
+    }
+
+    @Override
+    public double sumSquares(float[] a, int off, int len) {
+        double sum = 0.0;
+        for (int i = off, end = off + len; i < end; i++) sum += a[i] * a[i];
+        return sum;
+    }
+
+    @Override
+    public double sumAbs(float[] a, int off, int len) {
+        double sum = 0.0;
+        for (int i = off, end = off + len; i < end; i++) sum += Math.abs(a[i]);
+        return sum;
+    }
+}
@@ -0,0 +1,63 @@
+package cn.moerain.visualmidi;
+
+/**
+ * Hot inner loops of the visualizer (voice mixing, metering and band magnitudes).
+ * The implementation is picked once at startup: {@link VectorKernels} when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, the plain {@link ScalarKernels} otherwise.
+ * {@code -Dvisualmidi.kernels=scalar|vector} forces one path, e.g. to compare the two.
+ */
+public final class SignalKernels {
+    /** Operations both implementations provide; results agree within float rounding. */
+    interface Impl {
+        /** dst[i] += src[i] for i in [0, len) */
+        void accumulate(float[] dst, float[] src, int len);
+
+        /** Clamps a[0, len) to [-1, 1]. */
+        void clip(float[] a, int len);
+
+        float peakAbs(float[] a, int off, int len);
+
+        double sumSquares(float[] a, int off, int len);
+
+        double sumAbs(float[] a, int off, int len);
+    }
+
+    private static final Impl IMPL = select();
+
+    private SignalKernels() {}
+
+    private static Impl select() {
+        String mode = System.getProperty("visualmidi.kernels", "auto");
+        if (!mode.equals("scalar")) {
+            try {
+                return (Impl) Class.forName("cn.moerain.visualmidi.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // jdk.incubator.vector not resolved in this JVM
+                if (mode.equals("vector")) {
+                    System.err.println("Vector kernels unavailable, using scalar: " + e);
+                }
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /** "vector" or "scalar", for reports. */
+    public static String name() {
+        return IMPL instanceof ScalarKernels ? "scalar" : "vector";
+    }
+
+    public static void accumulate(float[] dst, float[] src, int len) { IMPL.accumulate(dst, src, len); }
+
+    public static void clip(float[] a, int len) { IMPL.clip(a, len); }
+
+    public static float peakAbs(float[] a, int off, int len) { return IMPL.peakAbs(a, off, len); }
+
+    public static double sumSquares(float[] a, int off, int len) { return IMPL.sumSquares(a, off, len); }
+
+    public static double sumAbs(float[] a, int off, int len) { return IMPL.sumAbs(a, off, len); }
+
+    /** Root mean square of a[off, off + len), 0 for an empty range. */
+    public static float rms(float[] a, int off, int len) {
+        return len > 0 ? (float) Math.sqrt(sumSquares(a, off, len) / len) : 0f;
+    }
+}
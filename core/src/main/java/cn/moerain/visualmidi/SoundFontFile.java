@@ -0,0 +1,129 @@
+package cn.moerain.visualmidi;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RIFF layout of an SF2 file, read from the chunk headers alone: where the 16-bit ({@code smpl}) and
+ * 24-bit extension ({@code sm24}) sample chunks are and how big they are.
+ * <p>
+ * A SoundFont with more sample data than {@code -Dvisualmidi.largeSoundbank} bytes (default 64 MiB)
+ * counts as large: {@link MidiEngine} then opens the software synth in large mode, which plays samples
+ * straight from the file instead of copying them all onto the heap, and {@link #warm()} reads the sample
+ * chunks once in the background so they sit in the OS page cache, and the synth's reads are served
+ * from memory that is neither heap nor counted against {@code -Xmx}.
+ */
+public final class SoundFontFile {
+    static final long LARGE_THRESHOLD = Long.getLong("visualmidi.largeSoundbank", 64L << 20);
+    // warm-up reads go through one small buffer, so all it holds on to is the OS page cache
+    private static final int WARM_BUFFER = 256 * 1024;
+
+    private final File file;
+    private long sampleOffset = -1;
+    private long sampleBytes;
+    private long sample24Offset = -1;
+    private long sample24Bytes;
+
+    private SoundFontFile(File file) {
+        this.file = file;
+    }
+
+    /** Reads the chunk headers of an SF2 file; fails if it is not one. */
+    public static SoundFontFile probe(File file) throws IOException {
+        SoundFontFile sf = new SoundFontFile(file);
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            read(fc, head, 0);
+            if (head.getInt(0) != fourcc("RIFF") || head.getInt(8) != fourcc("sfbk")) {
+                throw new IOException("Not a SoundFont 2 file: " + file.getName());
+            }
+            long end = Math.min(fc.size(), 8 + (head.getInt(4) & 0xFFFFFFFFL));
+            // top level: LIST INFO, LIST sdta, LIST pdta; the samples live in sdta
+            for (long pos = 12; pos + 12 <= end; ) {
+                read(fc, head, pos);
+                long size = head.getInt(4) & 0xFFFFFFFFL;
+                if (head.getInt(0) == fourcc("LIST") && head.getInt(8) == fourcc("sdta")) {
+                    sf.readSampleChunks(fc, pos + 12, Math.min(end, pos + 8 + size));
+                }
+                pos += 8 + size + (size & 1);
+            }
+        }
+        return sf;
+    }
+
+    private void readSampleChunks(FileChannel fc, long from, long to) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long pos = from; pos + 8 <= to; ) {
+            read(fc, head, pos);
+            long size = Math.min(head.getInt(4) & 0xFFFFFFFFL, to - pos - 8);
+            if (head.getInt(0) == fourcc("smpl")) {
+                sampleOffset = pos + 8;
+                sampleBytes = size;
+            } else if (head.getInt(0) == fourcc("sm24")) {
+                sample24Offset = pos + 8;
+                sample24Bytes = size;
+            }
+            pos += 8 + size + (size & 1);
+        }
+    }
+
+    private static void read(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, pos + buf.position()) < 0) throw new EOFException("Truncated SoundFont");
+        }
+    }
+
+    private static int fourcc(String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+
+    public File getFile() { return file; }
+
+    /** Bytes of sample data, both chunks. */
+    public long getSampleBytes() { return sampleBytes + sample24Bytes; }
+
+    public boolean isLarge() { return getSampleBytes() > LARGE_THRESHOLD; }
+
+    /**
+     * Reads the sample chunks through on a background thread, so notes played soon after loading come
+     * from the page cache rather than disk. Only the OS keeps anything; the reads reuse one small buffer.
+     */
+    public void warm() {
+        if (getSampleBytes() == 0) return;
+        Thread t = new Thread(() -> {
+            try {
+                warmNow();
+            } catch (IOException e) {
+                // only a warm-up; the synth reads the file either way
+            }
+        }, "soundfont-warm");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /** The warm-up on the calling thread; returns the bytes read, less than the sample data if interrupted. */
+    long warmNow() throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(WARM_BUFFER);
+            return warm(fc, sampleOffset, sampleBytes, buf) + warm(fc, sample24Offset, sample24Bytes, buf);
+        }
+    }
+
+    private static long warm(FileChannel fc, long offset, long length, ByteBuffer buf) throws IOException {
+        long pos = 0;
+        while (pos < length && !Thread.currentThread().isInterrupted()) {
+            buf.clear().limit((int) Math.min(buf.capacity(), length - pos));
+            int n = fc.read(buf, offset + pos);
+            if (n < 0) break;
+            pos += n;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,44 @@
+package cn.moerain.visualmidi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records named startup phases relative to the first use of this class (normally the top of
+ * {@code Main.main} in the ui module), so cold-start regressions show up as numbers instead of impressions.
+ * Run with {@code -Dvisualmidi.startupReport=true} to have the report printed once booting is done.
+ */
+public final class StartupTimer {
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    private static final List<Mark> marks = new ArrayList<>();
+
+    private record Mark(String phase, String thread, long nanos) {}
+
+    private StartupTimer() {}
+
+    public static void mark(String phase) {
+        long now = System.nanoTime();
+        synchronized (marks) {
+            marks.add(new Mark(phase, Thread.currentThread().getName(), now));
+        }
+    }
+
+    /** Milliseconds elapsed since the timer origin. */
+    public static long elapsedMillis() {
+        return (System.nanoTime() - ORIGIN_NANOS) / 1_000_000L;
+    }
+
+    public static boolean reportEnabled() {
+        return Boolean.getBoolean("visualmidi.startupReport");
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder("Startup timing (ms since main):\n");
+        synchronized (marks) {
+            for (Mark m : marks) {
+                sb.append(String.format("  %8.1f  %-24s %s%n", (m.nanos - ORIGIN_NANOS) / 1_000_000.0, "[" + m.thread + "]", m.phase));
+            }
+        }
+        return sb.toString();
+    }
+}
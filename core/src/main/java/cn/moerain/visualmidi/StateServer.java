@@ -0,0 +1,469 @@
+package cn.moerain.visualmidi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the visualizer state to browsers on this machine: a small page at {@code /} and a WebSocket
+ * at {@code /state} carrying one binary message per sink tick. Plain NIO on one selector thread,
+ * so the core keeps no server dependency, and it listens on the loopback address only.
+ * <p>
+ * Each message holds what changed since the previous one. It is encoded once, on the ticking thread,
+ * and the same bytes are written to every client:
+ * <pre>
+ * u8 kind (1 keyframe: reset everything to defaults first, 2 delta), u32 frame, u32 position millis,
+ * u16 channels, then records to the end of the message, each u8 op and u16 channel followed by
+ *   1 note on   u8 key        3 levels   u8 peak, u8 rms (0-255)     5 flags  u8 (1 muted, 2 solo)
+ *   2 note off  u8 key        4 program  u8 program
+ * </pre>
+ * Multi-byte fields are big endian. Levels are quantized to a byte, so meter movement below 1/255
+ * costs nothing, and ticks where nothing changed send nothing. A client that falls behind has its
+ * queued deltas dropped and is resynchronized with a keyframe.
+ */
+public final class StateServer implements LevelSink, AutoCloseable {
+    public static final int DEFAULT_PORT = 7170;
+    static final int KEYFRAME = 1, DELTA = 2;
+    static final int NOTE_ON = 1, NOTE_OFF = 2, LEVELS = 3, PROGRAM = 4, FLAGS = 5;
+    private static final int CAPACITY = MidiPorts.MAX_PORTS * MidiVisualizer.CHANNELS_PER_PORT;
+    private static final int HEADER_SIZE = 11;
+    // a client this far behind is dropped back to a keyframe rather than buffered further
+    private static final int MAX_BACKLOG = 256 * 1024;
+    private static final int MAX_REQUEST = 8192;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean open = true;
+
+    // state as last sent, owned by the ticking thread
+    private final long[] keys = new long[CAPACITY * 2];
+    private final byte[] peak = new byte[CAPACITY];
+    private final byte[] rms = new byte[CAPACITY];
+    private final byte[] program = new byte[CAPACITY];
+    private final byte[] flags = new byte[CAPACITY];
+    private final long[] current = new long[2];
+    private final ByteBuffer encode = ByteBuffer.allocate(HEADER_SIZE + CAPACITY * (128 * 4 + 3 * 5));
+    private int channels;
+    private long frame;
+
+    // hand-off from the ticking thread to the selector thread
+    private final ConcurrentLinkedQueue<Batch> outbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean keyframeWanted = new AtomicBoolean();
+    private volatile int streaming; // upgraded WebSocket clients
+
+    private record Batch(ByteBuffer delta, ByteBuffer keyframe) {}
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        int pendingBytes;
+        boolean upgraded;
+        boolean synced; // has had a keyframe and every delta since
+        boolean closing; // close once pending is written
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /** Listens on the loopback address; port 0 picks a free one, see {@link #getPort()}. */
+    public StateServer(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        thread = new Thread(this::serve, "state-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Number of connected WebSocket clients. */
+    public int getClientCount() {
+        return streaming;
+    }
+
+    @Override
+    public void publish(MidiVisualizer visualizer, long positionMicros) {
+        // with nobody listening the last-sent state goes stale, which is fine: new clients start from a keyframe
+        if (streaming == 0) return;
+        ByteBuffer delta = encodeDelta(visualizer, positionMicros);
+        ByteBuffer keyframe = keyframeWanted.getAndSet(false) ? encodeKeyframe(positionMicros) : null;
+        if (delta == null && keyframe == null) return;
+        outbox.add(new Batch(delta, keyframe));
+        selector.wakeup();
+    }
+
+    private ByteBuffer encodeDelta(MidiVisualizer visualizer, long positionMicros) {
+        int count = Math.min(CAPACITY, visualizer.getChannelCount());
+        ByteBuffer b = encode.clear();
+        b.position(HEADER_SIZE);
+        for (int ch = 0; ch < count; ch++) {
+            MidiVisualizer.ChannelState state = visualizer.getChannel(ch);
+            state.activeNotes(current);
+            for (int w = 0; w < 2; w++) {
+                long changed = current[w] ^ keys[2 * ch + w];
+                while (changed != 0) {
+                    int bit = Long.numberOfTrailingZeros(changed);
+                    boolean on = (current[w] >>> bit & 1) != 0;
+                    b.put((byte) (on ? NOTE_ON : NOTE_OFF)).putShort((short) ch).put((byte) (w * 64 + bit));
+                    changed &= changed - 1;
+                }
+                keys[2 * ch + w] = current[w];
+            }
+            ChannelFrame f = state.getFrame();
+            byte p = quantize(f.peak()), r = quantize(f.rms());
+            if (p != peak[ch] || r != rms[ch]) {
+                b.put((byte) LEVELS).putShort((short) ch).put(p).put(r);
+                peak[ch] = p;
+                rms[ch] = r;
+            }
+            byte prog = (byte) state.getProgram();
+            if (prog != program[ch]) {
+                b.put((byte) PROGRAM).putShort((short) ch).put(prog);
+                program[ch] = prog;
+            }
+            byte fl = (byte) ((visualizer.isMuted(ch) ? 1 : 0) | (visualizer.isSolo(ch) ? 2 : 0));
+            if (fl != flags[ch]) {
+                b.put((byte) FLAGS).putShort((short) ch).put(fl);
+                flags[ch] = fl;
+            }
+        }
+        // channels dropped by a reset or a smaller file go back to defaults; the channel count tells the client
+        for (int ch = count; ch < channels; ch++) resetChannel(ch);
+        boolean resized = count != channels;
+        channels = count;
+        if (b.position() == HEADER_SIZE && !resized) return null;
+        return message(DELTA, ++frame, positionMicros);
+    }
+
+    private ByteBuffer encodeKeyframe(long positionMicros) {
+        ByteBuffer b = encode.clear();
+        b.position(HEADER_SIZE);
+        for (int ch = 0; ch < channels; ch++) {
+            for (int w = 0; w < 2; w++) {
+                for (long bits = keys[2 * ch + w]; bits != 0; bits &= bits - 1) {
+                    b.put((byte) NOTE_ON).putShort((short) ch).put((byte) (w * 64 + Long.numberOfTrailingZeros(bits)));
+                }
+            }
+            if (peak[ch] != 0 || rms[ch] != 0) b.put((byte) LEVELS).putShort((short) ch).put(peak[ch]).put(rms[ch]);
+            if (program[ch] != 0) b.put((byte) PROGRAM).putShort((short) ch).put(program[ch]);
+            if (flags[ch] != 0) b.put((byte) FLAGS).putShort((short) ch).put(flags[ch]);
+        }
+        return message(KEYFRAME, frame, positionMicros);
+    }
+
+    private void resetChannel(int ch) {
+        keys[2 * ch] = keys[2 * ch + 1] = 0;
+        peak[ch] = rms[ch] = program[ch] = flags[ch] = 0;
+    }
+
+    private static byte quantize(float level) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, level)) * 255f);
+    }
+
+    /** Fills in the header of what was encoded and wraps it in a WebSocket binary frame. */
+    private ByteBuffer message(int kind, long frame, long positionMicros) {
+        ByteBuffer b = encode;
+        b.put(0, (byte) kind).putInt(1, (int) frame).putInt(5, (int) (positionMicros / 1000))
+                .putShort(9, (short) channels);
+        return wsFrame(0x2, b.array(), b.position());
+    }
+
+    private static ByteBuffer wsFrame(int opcode, byte[] payload, int length) {
+        int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        ByteBuffer f = ByteBuffer.allocate(header + length);
+        f.put((byte) (0x80 | opcode)); // FIN, server frames are never masked
+        if (length < 126) {
+            f.put((byte) length);
+        } else if (length < 65536) {
+            f.put((byte) 126).putShort((short) length);
+        } else {
+            f.put((byte) 127).putLong(length);
+        }
+        f.put(payload, 0, length).flip();
+        return f.asReadOnlyBuffer();
+    }
+
+    // ---- selector thread ----
+
+    private void serve() {
+        try {
+            while (open) {
+                selector.select();
+                drainOutbox();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        if (key.isValid() && key.isReadable()) read(key);
+                        if (key.isValid() && key.isWritable()) flush(key);
+                    } catch (IOException e) {
+                        drop(key);
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (open) System.err.println("State server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null) return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        ch.register(selector, SelectionKey.OP_READ, new Client(ch));
+    }
+
+    private void drainOutbox() {
+        Batch batch;
+        while ((batch = outbox.poll()) != null) {
+            for (SelectionKey key : selector.keys()) {
+                if (!(key.attachment() instanceof Client c) || !c.upgraded || c.closing || !key.isValid()) continue;
+                if (c.synced) {
+                    if (batch.delta() != null) send(key, c, batch.delta().duplicate(), true);
+                } else if (batch.keyframe() != null) {
+                    c.synced = true;
+                    send(key, c, batch.keyframe().duplicate(), true);
+                }
+            }
+        }
+    }
+
+    /** Queues data for a client; state frames that would push it past the backlog limit resync it instead. */
+    private void send(SelectionKey key, Client c, ByteBuffer data, boolean state) {
+        if (state && c.pendingBytes + data.remaining() > MAX_BACKLOG) {
+            // keep a frame that is half written, the socket is mid-message
+            ByteBuffer head = c.pending.peekFirst();
+            c.pending.clear();
+            c.pendingBytes = 0;
+            if (head != null && head.position() > 0) {
+                c.pending.add(head);
+                c.pendingBytes = head.remaining();
+            }
+            c.synced = false;
+            keyframeWanted.set(true);
+            return;
+        }
+        c.pending.add(data);
+        c.pendingBytes += data.remaining();
+        // a closing client is only drained, not read
+        key.interestOps(c.closing ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+        Client c = (Client) key.attachment();
+        while (!c.pending.isEmpty()) {
+            ByteBuffer head = c.pending.peekFirst();
+            int before = head.remaining();
+            c.channel.write(head);
+            c.pendingBytes -= before - head.remaining();
+            if (head.hasRemaining()) return;
+            c.pending.removeFirst();
+        }
+        if (c.closing) {
+            drop(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Client c = (Client) key.attachment();
+        if (c.channel.read(c.in) < 0) {
+            drop(key);
+            return;
+        }
+        if (c.upgraded) {
+            readFrames(key, c);
+        } else {
+            readRequest(key, c);
+        }
+    }
+
+    private void readRequest(SelectionKey key, Client c) {
+        ByteBuffer in = c.in;
+        int end = -1;
+        for (int i = 3; i < in.position(); i++) {
+            if (in.get(i - 3) == '\r' && in.get(i - 2) == '\n' && in.get(i - 1) == '\r' && in.get(i) == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!in.hasRemaining()) respond(key, c, "431 Request Header Fields Too Large", "text/plain", new byte[0]);
+            return;
+        }
+        String[] lines = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+        in.clear();
+        String[] request = lines[0].split(" ");
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+        }
+        if (request.length < 2 || !"GET".equals(request[0])) {
+            respond(key, c, "405 Method Not Allowed", "text/plain", new byte[0]);
+            return;
+        }
+        String path = request[1];
+        if ("/state".equals(path)) {
+            String wsKey = headers.get("sec-websocket-key");
+            if (wsKey == null || !headers.getOrDefault("upgrade", "").toLowerCase(Locale.ROOT).contains("websocket")) {
+                respond(key, c, "400 Bad Request", "text/plain", "WebSocket only".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(wsKey) + "\r\n\r\n";
+            send(key, c, ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)), false);
+            c.upgraded = true;
+            streaming++;
+            keyframeWanted.set(true);
+        } else if ("/".equals(path) || "/index.html".equals(path)) {
+            respond(key, c, "200 OK", "text/html; charset=utf-8", page());
+        } else {
+            respond(key, c, "404 Not Found", "text/plain", new byte[0]);
+        }
+    }
+
+    private void respond(SelectionKey key, Client c, String status, String type, byte[] body) {
+        String head = "HTTP/1.1 " + status + "\r\nContent-Type: " + type + "\r\nContent-Length: " + body.length
+                + "\r\nCache-Control: no-store\r\nConnection: close\r\n\r\n";
+        c.closing = true;
+        send(key, c, ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)), false);
+        send(key, c, ByteBuffer.wrap(body), false);
+    }
+
+    /** Handles what clients send: close and ping are answered, anything else is ignored. */
+    private void readFrames(SelectionKey key, Client c) {
+        ByteBuffer in = c.in.flip();
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int opcode = in.get(start) & 0x0F;
+            boolean masked = (in.get(start + 1) & 0x80) != 0;
+            long length = in.get(start + 1) & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) break;
+                length = in.getShort(start + 2) & 0xFFFF;
+                header = 4;
+            } else if (length == 127) {
+                if (in.remaining() < 10) break;
+                length = in.getLong(start + 2);
+                header = 10;
+            }
+            int maskAt = start + header;
+            if (masked) header += 4;
+            if (length > MAX_REQUEST - header) { // nothing a viewer sends is this big
+                c.closing = true;
+                send(key, c, wsFrame(0x8, new byte[] {(byte) (1009 >> 8), (byte) (1009 & 0xFF)}, 2), false);
+                in.clear();
+                return;
+            }
+            if (in.remaining() < header + length) break;
+            byte[] payload = new byte[(int) length];
+            for (int i = 0; i < payload.length; i++) {
+                byte v = in.get(start + header + i);
+                payload[i] = masked ? (byte) (v ^ in.get(maskAt + (i & 3))) : v;
+            }
+            in.position(start + header + (int) length);
+            if (opcode == 0x8) {
+                c.closing = true;
+                send(key, c, wsFrame(0x8, payload, Math.min(2, payload.length)), false);
+            } else if (opcode == 0x9) {
+                send(key, c, wsFrame(0xA, payload, payload.length), false);
+            }
+        }
+        in.compact();
+    }
+
+    private void drop(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Client c) {
+            if (c.upgraded) streaming--;
+            try {
+                c.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK has SHA-1
+        }
+    }
+
+    private static byte[] page;
+
+    private static byte[] page() {
+        if (page == null) {
+            try (InputStream in = StateServer.class.getResourceAsStream("state.html")) {
+                page = in != null ? in.readAllBytes() : new byte[0];
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        selector.wakeup();
+        server.close();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.ShortMessage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless stress run of the live pipeline. A paced sender thread pushes {@link LoadGenerator} events
+ * through a {@link TeeReceiver} into a {@link MidiVisualizer}, while a frame thread ticks the
+ * {@link ChannelAnalyzer} over every channel at 60 fps, which is the work the channel panels
+ * depend on. The note rate is multiplied after each step until the pipeline falls behind.
+ * <p>
+ * Usage: {@code StressHarness [--start 1000] [--max 1024000] [--factor 2] [--seconds 3]
+ * [--polyphony 64] [--channels 16] [--cc 200] [--seed 1]}, or {@code ./gradlew stressTest --args="..."}.
+ */
+public final class StressHarness {
+    // a step is sustainable while 99% of events arrive within this much of their due time...
+    private static final double MAX_P99_LATENCY_MS = 5.0;
+    // ...and 99% of analysis ticks fit in one 60 fps frame
+    private static final double FRAME_BUDGET_MS = 1000.0 / 60;
+
+    private record StepResult(double rate, int events, double p50, double p90, double p99, double max,
+                              double tickP50, double tickP99, double allocPerEvent, long stolen) {
+        boolean sustainable() {
+            return p99 <= MAX_P99_LATENCY_MS && tickP99 <= FRAME_BUDGET_MS;
+        }
+    }
+
+    private StressHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        double start = Double.parseDouble(opts.getOrDefault("start", "1000"));
+        double max = Double.parseDouble(opts.getOrDefault("max", "1024000"));
+        double factor = Double.parseDouble(opts.getOrDefault("factor", "2"));
+        double seconds = Double.parseDouble(opts.getOrDefault("seconds", "3"));
+        int polyphony = Integer.parseInt(opts.getOrDefault("polyphony", "64"));
+        int channels = Integer.parseInt(opts.getOrDefault("channels", "16"));
+        double cc = Double.parseDouble(opts.getOrDefault("cc", "200"));
+        long seed = Long.parseLong(opts.getOrDefault("seed", "1"));
+
+        System.out.printf(Locale.ROOT, "VisualMIDI stress: polyphony=%d channels=%d cc/s=%.0f seed=%d step=%.1fs kernels=%s cores=%d%n",
+                polyphony, channels, cc, seed, seconds, SignalKernels.name(), Runtime.getRuntime().availableProcessors());
+        // warm-up step so the JIT has compiled the hot paths before anything is reported
+        runStep(new LoadGenerator(start, polyphony, channels, cc, seed), 1.0, channels);
+
+        System.out.printf(Locale.ROOT, "%10s %9s %8s %8s %8s %8s %9s %9s %10s %8s  %s%n",
+                "notes/s", "events", "p50 ms", "p90 ms", "p99 ms", "max ms", "tick p50", "tick p99", "B/event", "stolen", "result");
+        double best = 0;
+        for (double rate = start; rate <= max; rate *= factor) {
+            StepResult r = runStep(new LoadGenerator(rate, polyphony, channels, cc, seed), seconds, channels);
+            System.out.printf(Locale.ROOT, "%10.0f %9d %8.3f %8.3f %8.3f %8.3f %9.3f %9.3f %10.1f %8d  %s%n",
+                    r.rate, r.events, r.p50, r.p90, r.p99, r.max, r.tickP50, r.tickP99, r.allocPerEvent, r.stolen,
+                    r.sustainable() ? "ok" : "BEHIND");
+            if (!r.sustainable()) break;
+            best = rate;
+        }
+        System.out.printf(Locale.ROOT, "max sustainable rate: %.0f notes/s%n", best);
+    }
+
+    private static StepResult runStep(LoadGenerator generator, double seconds, int channels) throws InterruptedException {
+        LoadGenerator.Events ev = generator.generate(seconds);
+        MidiVisualizer visualizer = new MidiVisualizer();
+        visualizer.setChannelCount(channels);
+        ChannelAnalyzer analyzer = new ChannelAnalyzer(visualizer);
+        analyzer.configure(1024, true, true); // worst case: waveform and bands for every channel
+        TeeReceiver tee = new TeeReceiver(visualizer);
+
+        long[] latency = new long[ev.size()];
+        long[] ticks = new long[(int) (seconds * 60) + 120];
+        AtomicInteger tickCount = new AtomicInteger();
+        ScheduledExecutorService frames = Executors.newSingleThreadScheduledExecutor();
+        frames.scheduleAtFixedRate(() -> {
+            long t = System.nanoTime();
+            analyzer.tick();
+            int i = tickCount.getAndIncrement();
+            if (i < ticks.length) ticks[i] = System.nanoTime() - t;
+        }, 0, 1_000_000 / 60, TimeUnit.MICROSECONDS);
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocBefore = mx.getThreadAllocatedBytes(tid);
+        long origin = System.nanoTime() + 5_000_000L;
+        for (int i = 0; i < latency.length; i++) {
+            long due = origin + ev.micros[i] * 1000L;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                if (due - now > 200_000L) LockSupport.parkNanos(due - now - 100_000L);
+                else Thread.onSpinWait();
+            }
+            tee.send(ev.messages[i], -1);
+            latency[i] = System.nanoTime() - due;
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - allocBefore;
+
+        frames.shutdown();
+        frames.awaitTermination(5, TimeUnit.SECONDS);
+        analyzer.close();
+
+        Arrays.sort(latency);
+        int tickN = Math.min(tickCount.get(), ticks.length);
+        long[] tickTimes = Arrays.copyOf(ticks, tickN);
+        Arrays.sort(tickTimes);
+        return new StepResult(rateOf(ev, seconds), ev.size(),
+                millis(latency, 0.50), millis(latency, 0.90), millis(latency, 0.99), millis(latency, 1.0),
+                millis(tickTimes, 0.50), millis(tickTimes, 0.99),
+                ev.size() > 0 ? allocated / (double) ev.size() : 0, visualizer.getStolenVoices());
+    }
+
+    private static double rateOf(LoadGenerator.Events ev, double seconds) {
+        int notes = 0;
+        for (int i = 0; i < ev.size(); i++) {
+            if (ev.messages[i].getCommand() == ShortMessage.NOTE_ON) notes++;
+        }
+        return notes / seconds;
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.min(sorted.length - 1, Math.round(quantile * (sorted.length - 1)));
+        return sorted[i] / 1_000_000.0;
+    }
+}
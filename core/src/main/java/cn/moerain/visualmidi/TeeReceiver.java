@@ -0,0 +1,55 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+public class TeeReceiver implements Receiver {
+    private final MidiVisualizer visualizer;
+    private volatile Receiver target;
+    private volatile boolean closed = false;
+
+    public TeeReceiver(MidiVisualizer visualizer) {
+        this.visualizer = visualizer;
+    }
+
+    public void setTarget(Receiver target) {
+        this.target = target;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (closed) return;
+        // always forward to visualization
+        visualizer.onMidi(message, timeStamp);
+        Receiver t = target;
+        if (t == null) return;
+        // mute/solo: one bit of the visualizer's allow-mask; releases still go out so no note hangs
+        if (message instanceof ShortMessage sm && sm.getCommand() < 0xF0
+                && !visualizer.isAudible(visualizer.channelIndex(sm)) && !isRelease(sm)) {
+            return;
+        }
+        t.send(message, timeStamp);
+    }
+
+    // Note-offs, plus the controllers the sequencer sends to stop sound on pause, seek and end of
+    // sequence: sustain, all sound off, reset all controllers and all notes off
+    private static boolean isRelease(ShortMessage sm) {
+        return switch (sm.getCommand()) {
+            case ShortMessage.NOTE_OFF -> true;
+            case ShortMessage.NOTE_ON -> sm.getData2() == 0;
+            case ShortMessage.CONTROL_CHANGE -> switch (sm.getData1()) {
+                case 64, 120, 121, 123 -> true;
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Receiver t = target;
+        if (t != null) t.close();
+    }
+}
@@ -0,0 +1,122 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+
+/**
+ * Tempo changes of a sequence, extracted once into primitive arrays: the tick each tempo starts at, its
+ * microseconds per quarter note and the microseconds elapsed before it. Conversions between ticks and
+ * microseconds are a binary search over them, without allocating, from any thread.
+ * <p>
+ * Like the JDK's sequencer, which only follows tempo events on the first track, and its own conversions,
+ * the map is built from track 0. The arithmetic is the JDK's too (each segment truncated to whole
+ * microseconds), so {@code toMicros} of the tick length equals {@link Sequence#getMicrosecondLength()}.
+ */
+public final class TempoMap {
+    private static final int DEFAULT_MPQ = 500_000; // 120 BPM until the first tempo event
+
+    private final boolean ppq;
+    private final double ticksPerSecond; // SMPTE only
+    private final int resolution;
+    private final long[] ticks;
+    private final long[] micros;
+    private final int[] mpq;
+    private final long tickLength;
+    private final long lengthMicros;
+
+    private TempoMap(Sequence seq, long[] ticks, int[] mpq) {
+        this.ppq = seq.getDivisionType() == Sequence.PPQ;
+        this.ticksPerSecond = ppq ? 0 : (double) seq.getDivisionType() * seq.getResolution();
+        this.resolution = seq.getResolution();
+        this.ticks = ticks;
+        this.mpq = mpq;
+        this.micros = new long[ticks.length];
+        for (int i = 1; i < ticks.length; i++) {
+            micros[i] = micros[i - 1] + segmentMicros(ticks[i] - ticks[i - 1], mpq[i - 1]);
+        }
+        this.tickLength = seq.getTickLength();
+        this.lengthMicros = toMicros(tickLength);
+    }
+
+    /**
+     * Scans the first track's tempo events; SMPTE sequences have a fixed tick length and no map. Tempo
+     * events on other tracks are ignored, as they are by the sequencer.
+     */
+    public static TempoMap of(Sequence seq) {
+        Track[] tracks = seq.getTracks();
+        if (seq.getDivisionType() != Sequence.PPQ || tracks.length == 0) {
+            return new TempoMap(seq, new long[]{0}, new int[]{DEFAULT_MPQ});
+        }
+        Track track = tracks[0];
+        long[] ticks = new long[track.size() + 1];
+        int[] mpq = new int[track.size() + 1];
+        mpq[0] = DEFAULT_MPQ;
+        int n = 1;
+        // a track keeps its events in tick order
+        for (int i = 0, size = track.size(); i < size; i++) {
+            MidiEvent ev = track.get(i);
+            int t = tempo(ev);
+            if (t <= 0) continue;
+            if (ev.getTick() == ticks[n - 1]) {
+                mpq[n - 1] = t; // several changes at one tick: the last one played wins
+            } else {
+                ticks[n] = ev.getTick();
+                mpq[n++] = t;
+            }
+        }
+        return new TempoMap(seq, Arrays.copyOf(ticks, n), Arrays.copyOf(mpq, n));
+    }
+
+    private static int tempo(MidiEvent ev) {
+        if (ev.getMessage() instanceof MetaMessage meta && meta.getType() == 0x51) {
+            byte[] d = meta.getData();
+            if (d.length >= 3) return ((d[0] & 0xFF) << 16) | ((d[1] & 0xFF) << 8) | (d[2] & 0xFF);
+        }
+        return 0;
+    }
+
+    private long segmentMicros(long ticks, int mpq) {
+        return (long) ((double) ticks * mpq / resolution);
+    }
+
+    /** Time of the given tick from the start of the sequence. */
+    public long toMicros(long tick) {
+        if (!ppq) return (long) (1_000_000 * (tick / ticksPerSecond));
+        int i = segment(ticks, tick);
+        return micros[i] + segmentMicros(tick - ticks[i], mpq[i]);
+    }
+
+    /** Tick playing at the given time; the inverse of {@link #toMicros} up to rounding. */
+    public long toTick(long micros) {
+        if (!ppq) return (long) (micros * ticksPerSecond / 1_000_000);
+        if (micros <= 0) return 0;
+        int i = segment(this.micros, micros);
+        return ticks[i] + (long) ((double) (micros - this.micros[i]) * resolution / mpq[i]);
+    }
+
+    /** Microseconds per quarter note in effect at the given tick. */
+    public int tempoAt(long tick) {
+        return ppq ? mpq[segment(ticks, tick)] : DEFAULT_MPQ;
+    }
+
+    // Last segment starting at or before value; ties resolve to the later segment
+    private static int segment(long[] starts, long value) {
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= value) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** Number of tempo segments, the implicit 120 BPM start included. */
+    public int size() { return ticks.length; }
+
+    public long getTickLength() { return tickLength; }
+
+    public long getLengthMicros() { return lengthMicros; }
+}
@@ -0,0 +1,78 @@
+package cn.moerain.visualmidi;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of {@link SignalKernels} on the incubating Vector API. Only loaded
+ * reflectively, so the rest of the app runs unchanged when the module is not resolved.
+ */
+final class VectorKernels implements SignalKernels.Impl {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // elements summed in float lanes before widening into the double total, as ScalarKernels sums in double;
+    // a multiple of every lane count
+    private static final int CHUNK = 256;
+
+    @Override
+    public void accumulate(float[] dst, float[] src, int len) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(len); i < upper; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, dst, i).add(FloatVector.fromArray(SPECIES, src, i)).intoArray(dst, i);
+        }
+        for (; i < len; i++) dst[i] += src[i];
+    }
+
+    @Override
+    public void clip(float[] a, int len) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(len); i < upper; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, a, i).max(-1f).min(1f).intoArray(a, i);
+        }
+        for (; i < len; i++) a[i] = Math.max(-1f, Math.min(1f, a[i]));
+    }
+
+    @Override
+    public float peakAbs(float[] a, int off, int len) {
+        int i = 0;
+        FloatVector max = FloatVector.zero(SPECIES);
+        for (int upper = SPECIES.loopBound(len); i < upper; i += SPECIES.length()) {
+            max = max.max(FloatVector.fromArray(SPECIES, a, off + i).abs());
+        }
+        float peak = max.reduceLanes(VectorOperators.MAX);
+        for (; i < len; i++) peak = Math.max(peak, Math.abs(a[off + i]));
+        return peak;
+    }
+
+    @Override
+    public double sumSquares(float[] a, int off, int len) {
+        int i = 0;
+        double sum = 0.0;
+        for (int upper = SPECIES.loopBound(len); i < upper; ) {
+            // float lanes only within a chunk, so the rounding error does not grow with the length
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int chunkEnd = Math.min(upper, i + CHUNK); i < chunkEnd; i += SPECIES.length()) {
+                FloatVector v = FloatVector.fromArray(SPECIES, a, off + i);
+                acc = v.fma(v, acc);
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < len; i++) sum += a[off + i] * a[off + i];
+        return sum;
+    }
+
+    @Override
+    public double sumAbs(float[] a, int off, int len) {
+        int i = 0;
+        double sum = 0.0;
+        for (int upper = SPECIES.loopBound(len); i < upper; ) {
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (int chunkEnd = Math.min(upper, i + CHUNK); i < chunkEnd; i += SPECIES.length()) {
+                acc = acc.add(FloatVector.fromArray(SPECIES, a, off + i).abs());
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < len; i++) sum += Math.abs(a[off + i]);
+        return sum;
+    }
+}
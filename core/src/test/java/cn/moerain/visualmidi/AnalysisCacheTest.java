@@ -0,0 +1,63 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalysisCacheTest {
+    @TempDir
+    Path dir;
+
+    private static Sequence chord() throws Exception {
+        Sequence seq = new Sequence(Sequence.PPQ, 480);
+        Track track = seq.createTrack();
+        for (int note = 60; note < 64; note++) {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, note, 100), 0));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, note, 0), 480));
+        }
+        return seq;
+    }
+
+    @Test
+    void reopensWhatItBuilt() throws Exception {
+        byte[] hash = new byte[32];
+        hash[0] = 1;
+        Path file = dir.resolve("a.vmac");
+        AnalysisCache.build(chord(), 16, hash, file);
+        AnalysisCache cache = AnalysisCache.open(file, hash, 16);
+        assertNotNull(cache);
+        assertEquals(16, cache.getChannelCount());
+        // half a second at 120 BPM, plus the frame the last event falls in
+        assertEquals(AnalysisCache.FRAME_RATE / 2 + 1, cache.getFrameCount());
+        assertTrue(cache.peak(cache.frameIndex(100_000), 0) > 0);
+        assertEquals(0f, cache.peak(cache.frameIndex(100_000), 1));
+        assertNull(AnalysisCache.open(file, new byte[32], 16), "other file");
+        assertNull(AnalysisCache.open(file, hash, 32), "other channel count");
+    }
+
+    @Test
+    void rejectsLevelsRenderedUnderOtherVoiceCaps() throws Exception {
+        byte[] hash = new byte[32];
+        Path file = dir.resolve("b.vmac");
+        AnalysisCache.build(chord(), 16, hash, file);
+        String key = "visualmidi.maxVoicesPerChannel";
+        String old = System.getProperty(key);
+        System.setProperty(key, "2");
+        try {
+            assertNull(AnalysisCache.open(file, hash, 16));
+        } finally {
+            if (old == null) System.clearProperty(key); else System.setProperty(key, old);
+        }
+        assertNotNull(AnalysisCache.open(file, hash, 16));
+    }
+}
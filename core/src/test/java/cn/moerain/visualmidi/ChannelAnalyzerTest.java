@@ -0,0 +1,83 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChannelAnalyzerTest {
+    @TempDir
+    Path dir;
+
+    private final MidiVisualizer vis = new MidiVisualizer();
+    private final ChannelAnalyzer analyzer = new ChannelAnalyzer(vis);
+    private long position;
+    private boolean playing = true;
+
+    @AfterEach
+    void close() {
+        analyzer.close();
+    }
+
+    // Channel 0 sounds for the first half second at 120 BPM, then nothing until a note at 3 s
+    private AnalysisCache cache() throws Exception {
+        Sequence seq = new Sequence(Sequence.PPQ, 480);
+        Track track = seq.createTrack();
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 480));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 2880));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 3360));
+        byte[] hash = new byte[32];
+        Path file = dir.resolve("a.vmac");
+        AnalysisCache.build(seq, 16, hash, file);
+        return AnalysisCache.open(file, hash, 16);
+    }
+
+    private float peakAt(long positionMicros) {
+        position = positionMicros;
+        analyzer.tick();
+        return vis.getChannel(0).getFrame().peak();
+    }
+
+    @Test
+    void cachedLevelsFollowWhatIsHeard() throws Exception {
+        AnalysisCache cache = cache();
+        analyzer.configure(256, false, false);
+        analyzer.setCache(cache);
+        analyzer.setPositionSource(() -> position);
+        assertTrue(peakAt(250_000) > 0, "note at 250 ms");
+        assertEquals(0f, peakAt(2_000_000), "silence at 2 s");
+
+        vis.setOutputLatencyMicros(1_750_000);
+        // the sequencer is at 2 s but the output is still playing 250 ms
+        assertEquals(cache.peak(cache.frameIndex(250_000), 0), peakAt(2_000_000));
+        assertTrue(peakAt(2_000_000) > 0, "heard at 250 ms");
+        // at the start the lookup stays on the first frame
+        assertEquals(cache.peak(0, 0), peakAt(1_000_000));
+    }
+
+    @Test
+    void cachedLevelsAreSilentWhileStopped() throws Exception {
+        AnalysisCache cache = cache();
+        analyzer.configure(256, true, false);
+        analyzer.setCache(cache);
+        analyzer.setPositionSource(() -> position);
+        analyzer.setPlayingSource(() -> playing);
+        assertTrue(peakAt(250_000) > 0, "playing");
+        playing = false;
+        assertEquals(0f, peakAt(250_000), "paused");
+        ChannelFrame frame = vis.getChannel(0).getFrame();
+        assertEquals(0f, frame.rms());
+        for (float band : frame.bands()) assertEquals(0f, band);
+        playing = true;
+        assertTrue(peakAt(250_000) > 0, "resumed");
+    }
+}
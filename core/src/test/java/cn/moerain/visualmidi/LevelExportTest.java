@@ -0,0 +1,127 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.midi.ShortMessage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LevelExportTest {
+    private static final int CHANNELS = 64;
+
+    @TempDir
+    Path dir;
+
+    // Frame i carries level (i % 1000) / 1000 on every channel and position i, so a torn read shows
+    private static void publishFrame(LevelPublisher publisher, MidiVisualizer vis, long i) {
+        float level = (i % 1000) / 1000f;
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            vis.getChannel(ch).publish(new ChannelFrame(0, ChannelFrame.EMPTY.waveform(), level, level, null));
+        }
+        publisher.publish(vis, i);
+    }
+
+    private static String consistency(LevelReader.Snapshot s) {
+        if (s.channels != CHANNELS) return "channels " + s.channels;
+        float level = (s.positionMicros % 1000) / 1000f;
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            if (s.peak[ch] != level || s.rms[ch] != level) {
+                return "frame " + s.frame + " channel " + ch + " has " + s.peak[ch] + " for " + level;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void readsWhatWasPublished() throws Exception {
+        Path file = dir.resolve("levels.vmlv");
+        MidiVisualizer vis = new MidiVisualizer();
+        vis.setChannelCount(CHANNELS);
+        vis.onMidi(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 2, 40, 0), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_ON, 2, 69, 100), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_ON, 2, 100, 100), -1);
+        vis.setMute(3, true);
+        try (LevelPublisher publisher = new LevelPublisher(file); LevelReader reader = new LevelReader(file)) {
+            LevelReader.Snapshot s = new LevelReader.Snapshot();
+            assertFalse(reader.read(s), "nothing published yet");
+            publishFrame(publisher, vis, 250);
+            assertTrue(reader.read(s));
+            assertEquals(1, s.frame);
+            assertEquals(250, s.positionMicros);
+            assertEquals(null, consistency(s));
+            assertEquals(40, s.program[2]);
+            assertEquals(2, s.voices[2]);
+            assertTrue(s.isKeyDown(2, 69) && s.isKeyDown(2, 100));
+            assertFalse(s.isKeyDown(2, 68));
+            assertEquals(LevelPublisher.FLAG_MUTED, s.flags[3]);
+        }
+    }
+
+    @Test
+    void anotherProcessSeesOnlyWholeFrames() throws Exception {
+        Path file = dir.resolve("levels.vmlv");
+        MidiVisualizer vis = new MidiVisualizer();
+        vis.setChannelCount(CHANNELS);
+        try (LevelPublisher publisher = new LevelPublisher(file)) {
+            publishFrame(publisher, vis, 0);
+            String classPath = location(LevelPublisher.class) + File.pathSeparator + location(LevelExportTest.class);
+            Process reader = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", classPath, Reader.class.getName(), file.toString())
+                    .redirectErrorStream(true).start();
+            // publish as fast as possible while the other process reads, to give tearing every chance
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread writer = new Thread(() -> {
+                for (long i = 1; running.get(); i++) publishFrame(publisher, vis, i);
+            });
+            writer.start();
+            boolean exited = reader.waitFor(60, TimeUnit.SECONDS);
+            running.set(false);
+            writer.join();
+            String output = new String(reader.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!exited) reader.destroyForcibly();
+            assertTrue(exited, "reader did not finish: " + output);
+            assertEquals(0, reader.exitValue(), output);
+        }
+    }
+
+    private static String location(Class<?> c) throws Exception {
+        return Paths.get(c.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    /** Runs in the second JVM: reads frames for a while and exits 0 if every one was whole and they advanced. */
+    static final class Reader {
+        public static void main(String[] args) throws Exception {
+            try (LevelReader reader = new LevelReader(Paths.get(args[0]))) {
+                LevelReader.Snapshot s = new LevelReader.Snapshot();
+                long reads = 0, firstFrame = -1, lastFrame = -1;
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                while (System.nanoTime() < end) {
+                    if (!reader.read(s)) continue;
+                    String torn = consistency(s);
+                    if (torn != null) {
+                        System.out.println("torn read: " + torn);
+                        System.exit(1);
+                    }
+                    if (s.frame < lastFrame) {
+                        System.out.println("frame went back from " + lastFrame + " to " + s.frame);
+                        System.exit(1);
+                    }
+                    if (firstFrame < 0) firstFrame = s.frame;
+                    lastFrame = s.frame;
+                    reads++;
+                }
+                System.out.println(reads + " reads, frames " + firstFrame + ".." + lastFrame);
+                System.exit(reads > 0 && lastFrame > firstFrame ? 0 : 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeasuredLineTest {
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    /** A device whose play position is moved by the test; flush drops what was queued. */
+    private static final class FakeLine implements SourceDataLine {
+        long written;
+        long played;
+
+        @Override public int write(byte[] b, int off, int len) { written += len / 4; return len; }
+        @Override public void flush() { written = played; }
+        @Override public AudioFormat getFormat() { return FORMAT; }
+        @Override public int getBufferSize() { return 4410 * 4; }
+        @Override public long getLongFramePosition() { return played; }
+        @Override public int getFramePosition() { return (int) played; }
+        @Override public void open(AudioFormat format, int bufferSize) { }
+        @Override public void open(AudioFormat format) { }
+        @Override public void open() { }
+        @Override public void close() { }
+        @Override public boolean isOpen() { return true; }
+        @Override public void drain() { }
+        @Override public void start() { }
+        @Override public void stop() { }
+        @Override public boolean isRunning() { return true; }
+        @Override public boolean isActive() { return true; }
+        @Override public int available() { return 0; }
+        @Override public long getMicrosecondPosition() { return 0; }
+        @Override public float getLevel() { return 0; }
+        @Override public Line.Info getLineInfo() { return new Line.Info(SourceDataLine.class); }
+        @Override public Control[] getControls() { return new Control[0]; }
+        @Override public boolean isControlSupported(Control.Type control) { return false; }
+        @Override public Control getControl(Control.Type control) { throw new IllegalArgumentException(); }
+        @Override public void addLineListener(LineListener listener) { }
+        @Override public void removeLineListener(LineListener listener) { }
+    }
+
+    private static byte[] block(int frames, short sample) {
+        byte[] b = new byte[frames * 4];
+        for (int i = 0; i < b.length; i += 2) {
+            b[i] = (byte) sample;
+            b[i + 1] = (byte) (sample >> 8);
+        }
+        return b;
+    }
+
+    @Test
+    void countsAStarvedDevice() {
+        FakeLine fake = new FakeLine();
+        MeasuredLine line = new MeasuredLine(fake);
+        line.write(block(512, (short) 0), 0, 2048);
+        line.write(block(512, (short) 0), 0, 2048);
+        fake.played = 512;
+        line.write(block(512, (short) 0), 0, 2048);
+        assertEquals(0, line.getUnderruns());
+        fake.played = 1536; // played everything written before the next block arrived
+        line.write(block(512, (short) 0), 0, 2048);
+        assertEquals(1, line.getUnderruns());
+    }
+
+    @Test
+    void stoppingOrFlushingIsNotAnUnderrun() {
+        FakeLine fake = new FakeLine();
+        MeasuredLine line = new MeasuredLine(fake);
+        line.write(block(512, (short) 0), 0, 2048);
+        fake.played = 256;
+        line.write(block(512, (short) 0), 0, 2048);
+        // paused until the device ran dry, then resumed
+        line.stop();
+        fake.played = 1024;
+        line.start();
+        line.write(block(512, (short) 0), 0, 2048);
+        // a seek drops what was queued: the device never plays those frames
+        line.flush();
+        line.write(block(512, (short) 0), 0, 2048);
+        fake.played = 1200;
+        line.write(block(512, (short) 0), 0, 2048);
+        assertEquals(0, line.getUnderruns());
+    }
+
+    @Test
+    void timesTheFirstLoudFrame() throws Exception {
+        FakeLine fake = new FakeLine();
+        MeasuredLine line = new MeasuredLine(fake);
+        line.write(block(4410, (short) 0), 0, 4410 * 4);
+        long sent = System.nanoTime();
+        line.arm(sent);
+        Thread pusher = new Thread(() -> {
+            line.write(block(441, (short) 0), 0, 441 * 4);
+            line.write(block(441, (short) 20000), 0, 441 * 4);
+        });
+        pusher.start();
+        long latency = line.awaitOnset(10_000);
+        pusher.join();
+        // the loud block is queued behind 110 ms of audio the device has not played
+        assertTrue(latency >= 110_000_000L, "latency " + latency);
+        assertTrue(latency < 10_000_000_000L, "latency " + latency);
+    }
+
+    @Test
+    void silenceTimesOut() throws Exception {
+        MeasuredLine line = new MeasuredLine(new FakeLine());
+        line.arm(System.nanoTime());
+        line.write(block(441, (short) 0), 0, 441 * 4);
+        long start = System.nanoTime();
+        assertEquals(-1, line.awaitOnset(50));
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+    }
+}
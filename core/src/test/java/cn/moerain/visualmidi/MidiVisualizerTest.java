@@ -0,0 +1,50 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MidiVisualizerTest {
+    private static MidiVisualizer playing() throws Exception {
+        MidiVisualizer vis = new MidiVisualizer();
+        vis.onMidi(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 2, 40, 0), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_ON, 2, 60, 100), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_ON, 9, 36, 100), -1);
+        assertEquals(2, vis.getVoiceCount());
+        return vis;
+    }
+
+    private static void assertSilenced(MidiVisualizer vis) {
+        assertEquals(0, vis.getVoiceCount());
+        assertEquals(0, vis.getChannel(2).getVoiceCount());
+        assertEquals(0, vis.getChannel(9).getVoiceCount());
+        assertEquals(0, vis.getChannel(2).getProgram());
+    }
+
+    @Test
+    void realTimeResetSilencesEveryChannel() throws Exception {
+        MidiVisualizer vis = playing();
+        vis.onMidi(new ShortMessage(ShortMessage.SYSTEM_RESET), -1);
+        assertSilenced(vis);
+    }
+
+    @Test
+    void gmSystemOnSilencesEveryChannel() throws Exception {
+        MidiVisualizer vis = playing();
+        byte[] gmOn = {(byte) 0xF0, 0x7E, 0x7F, 0x09, 0x01, (byte) 0xF7};
+        vis.onMidi(new SysexMessage(gmOn, gmOn.length), -1);
+        assertSilenced(vis);
+    }
+
+    @Test
+    void otherSystemMessagesLeaveChannelsAlone() throws Exception {
+        MidiVisualizer vis = playing();
+        vis.onMidi(new ShortMessage(ShortMessage.TIMING_CLOCK), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.ACTIVE_SENSING), -1);
+        assertEquals(2, vis.getVoiceCount());
+        assertEquals(40, vis.getChannel(2).getProgram());
+    }
+}
@@ -0,0 +1,98 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaylistTest {
+    @TempDir
+    Path dir;
+
+    // A 50 ms song: one note at 120 BPM
+    private File song(String name) throws Exception {
+        Sequence seq = new Sequence(Sequence.PPQ, 480);
+        Track track = seq.createTrack();
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 48));
+        File file = dir.resolve(name).toFile();
+        MidiSystem.write(seq, 0, file);
+        return file;
+    }
+
+    @Test
+    void readsEntriesAndSoundfontDirectives() throws Exception {
+        Path list = dir.resolve("set.m3u");
+        Files.writeString(list, String.join("\n",
+                "#EXTM3U", "a.mid", "#SOUNDFONT:banks/gs.sf2", "b.mid", "", "#soundfont:", "c.mid"), StandardCharsets.UTF_8);
+        List<Playlist.Entry> entries = Playlist.read(list);
+        assertEquals(3, entries.size());
+        assertEquals(dir.resolve("a.mid").toFile(), entries.get(0).midi());
+        assertNull(entries.get(0).soundbank());
+        assertEquals(dir.resolve("banks/gs.sf2").toFile(), entries.get(1).soundbank());
+        assertNull(entries.get(2).soundbank());
+    }
+
+    @Test
+    void playsThroughWithinTheBudget() throws Exception {
+        runThrough(1 << 20);
+    }
+
+    @Test
+    void playsThroughWithNothingPrefetched() throws Exception {
+        runThrough(0);
+    }
+
+    private void runThrough(long budget) throws Exception {
+        List<Playlist.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) entries.add(new Playlist.Entry(song("s" + i + ".mid"), null));
+        MidiEngine engine = new MidiEngine();
+        try (Playlist playlist = new Playlist(engine, entries, 2, budget)) {
+            List<Integer> played = Collections.synchronizedList(new ArrayList<>());
+            List<Long> prefetched = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch finished = new CountDownLatch(1);
+            playlist.setListener(new Playlist.Listener() {
+                @Override
+                public void trackChanged(int index, Playlist.Entry entry) {
+                    played.add(index);
+                    prefetched.add(playlist.getPrefetchedBytes());
+                }
+
+                @Override
+                public void finished() {
+                    finished.countDown();
+                }
+
+                @Override
+                public void failed(Playlist.Entry entry, Exception e) {
+                    throw new AssertionError(entry + " failed", e);
+                }
+            });
+            engine.whenSequencerReady().get(30, TimeUnit.SECONDS);
+            playlist.play(0);
+            assertTrue(finished.await(30, TimeUnit.SECONDS), "played " + played);
+            assertEquals(List.of(0, 1, 2, 3), played);
+            for (long bytes : prefetched) assertTrue(bytes <= budget, bytes + " prefetched over a budget of " + budget);
+            assertEquals(0, playlist.getPrefetchedBytes());
+        } finally {
+            engine.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SignalKernelsTest {
+    // lengths around the lane counts and the vector chunk, plus odd offsets for the tails
+    private static final int[] LENGTHS = {0, 1, 3, 7, 8, 15, 16, 17, 63, 255, 256, 257, 1000, 4096, 48_000};
+    private static final int[] OFFSETS = {0, 1, 5};
+
+    private final ScalarKernels scalar = new ScalarKernels();
+
+    private static SignalKernels.Impl vector() {
+        try {
+            return (SignalKernels.Impl) Class.forName("cn.moerain.visualmidi.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            assumeTrue(false, "jdk.incubator.vector not resolved: " + e);
+            return null;
+        }
+    }
+
+    private static float[] signal(int len, long seed) {
+        Random random = new Random(seed);
+        float[] a = new float[len];
+        for (int i = 0; i < len; i++) a[i] = (float) (random.nextGaussian() * 0.7);
+        return a;
+    }
+
+    @Test
+    void elementwiseKernelsMatchExactly() {
+        SignalKernels.Impl vector = vector();
+        for (int len : LENGTHS) {
+            float[] dst = signal(len, 1), src = signal(len, 2);
+            float[] expected = dst.clone(), actual = dst.clone();
+            scalar.accumulate(expected, src, len);
+            vector.accumulate(actual, src, len);
+            assertArrayEquals(expected, actual, "accumulate " + len);
+            // the sums go past [-1, 1], so clipping has work to do
+            scalar.clip(expected, len);
+            vector.clip(actual, len);
+            assertArrayEquals(expected, actual, "clip " + len);
+        }
+    }
+
+    @Test
+    void peakMatchesExactly() {
+        SignalKernels.Impl vector = vector();
+        for (int len : LENGTHS) {
+            for (int off : OFFSETS) {
+                float[] a = signal(len + off, len);
+                assertEquals(scalar.peakAbs(a, off, len), vector.peakAbs(a, off, len), "peakAbs " + len + "@" + off);
+            }
+        }
+    }
+
+    @Test
+    void sumsMatchWithinFloatRounding() {
+        SignalKernels.Impl vector = vector();
+        for (int len : LENGTHS) {
+            for (int off : OFFSETS) {
+                float[] a = signal(len + off, 31L * len + off);
+                double squares = scalar.sumSquares(a, off, len);
+                double abs = scalar.sumAbs(a, off, len);
+                assertEquals(squares, vector.sumSquares(a, off, len), 1e-6 * Math.max(1, squares), "sumSquares " + len + "@" + off);
+                assertEquals(abs, vector.sumAbs(a, off, len), 1e-6 * Math.max(1, abs), "sumAbs " + len + "@" + off);
+            }
+        }
+    }
+
+    @Test
+    void longSumsDoNotDrift() {
+        // a minute of a constant at 48 kHz, where float lane totals drift by a fraction of a percent
+        int len = 48_000 * 60;
+        float[] a = new float[len];
+        Arrays.fill(a, 0.1f);
+        SignalKernels.Impl vector = vector();
+        double expected = len * (double) 0.1f;
+        assertEquals(expected, scalar.sumAbs(a, 0, len), expected * 1e-9);
+        assertEquals(expected, vector.sumAbs(a, 0, len), expected * 1e-6);
+        double squares = len * (double) (0.1f * 0.1f);
+        assertEquals(squares, vector.sumSquares(a, 0, len), squares * 1e-6);
+    }
+
+    @Test
+    void rmsOfEmptyRangeIsZero() {
+        assertEquals(0f, SignalKernels.rms(new float[4], 2, 0));
+        assertEquals(0.5f, SignalKernels.rms(new float[]{0.5f, -0.5f, 0.5f, -0.5f}, 0, 4), 1e-6f);
+    }
+}
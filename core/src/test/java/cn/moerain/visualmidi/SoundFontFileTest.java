@@ -0,0 +1,94 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SoundFontFileTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] chunk(String id, byte[] data) {
+        ByteBuffer b = ByteBuffer.allocate(8 + data.length + (data.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(id.getBytes(StandardCharsets.US_ASCII)).putInt(data.length).put(data);
+        return b.array();
+    }
+
+    private static byte[] list(String type, byte[]... chunks) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(type.getBytes(StandardCharsets.US_ASCII));
+        for (byte[] c : chunks) body.writeBytes(c);
+        return chunk("LIST", body.toByteArray());
+    }
+
+    // RIFF sfbk with INFO, sdta (smpl and an odd-sized sm24, so the pad byte is exercised) and an empty pdta
+    private File soundFont(int smpl, int sm24) throws IOException {
+        byte[] body = concat("sfbk".getBytes(StandardCharsets.US_ASCII),
+                list("INFO", chunk("ifil", new byte[] {2, 0, 1, 0})),
+                sm24 > 0 ? list("sdta", chunk("smpl", new byte[smpl]), chunk("sm24", new byte[sm24]))
+                        : list("sdta", chunk("smpl", new byte[smpl])),
+                list("pdta"));
+        File file = dir.resolve("test.sf2").toFile();
+        Files.write(file.toPath(), chunk("RIFF", body));
+        return file;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.writeBytes(p);
+        return out.toByteArray();
+    }
+
+    @Test
+    void findsBothSampleChunks() throws Exception {
+        SoundFontFile sf = SoundFontFile.probe(soundFont(4096, 2049));
+        assertEquals(4096 + 2049, sf.getSampleBytes());
+        assertFalse(sf.isLarge());
+    }
+
+    @Test
+    void sixteenBitOnly() throws Exception {
+        assertEquals(1000, SoundFontFile.probe(soundFont(1000, 0)).getSampleBytes());
+    }
+
+    @Test
+    void warmReadsAllSampleData() throws Exception {
+        // larger than the warm-up buffer, so it takes several reads
+        SoundFontFile sf = SoundFontFile.probe(soundFont(600_000, 300_001));
+        assertEquals(sf.getSampleBytes(), sf.warmNow());
+    }
+
+    @Test
+    void rejectsOtherRiffFiles() throws Exception {
+        Path wav = dir.resolve("a.wav");
+        Files.write(wav, chunk("RIFF", concat("WAVE".getBytes(StandardCharsets.US_ASCII), chunk("data", new byte[16]))));
+        assertThrows(IOException.class, () -> SoundFontFile.probe(wav.toFile()));
+        Path tiny = dir.resolve("tiny.sf2");
+        Files.write(tiny, new byte[] {'R', 'I', 'F', 'F'});
+        assertThrows(IOException.class, () -> SoundFontFile.probe(tiny.toFile()));
+    }
+
+    @Test
+    void truncatedSampleChunkIsClampedToTheFile() throws Exception {
+        File file = soundFont(4096, 0);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // cut into the sample data: the probe reports what is there, not what the header claims
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1000 - 8 - 4));
+        SoundFontFile sf = SoundFontFile.probe(file);
+        assertEquals(sf.getSampleBytes(), sf.warmNow());
+        assertEquals(4096 - 1000, sf.getSampleBytes());
+    }
+}
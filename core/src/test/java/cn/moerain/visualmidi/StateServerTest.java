@@ -0,0 +1,144 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.ShortMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateServerTest {
+    private final StateServer server;
+    private final MidiVisualizer vis = new MidiVisualizer();
+
+    StateServerTest() throws Exception {
+        server = new StateServer(0);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        server.close();
+    }
+
+    /** Collects whole binary messages and pongs. */
+    private static final class Client implements WebSocket.Listener {
+        final BlockingQueue<ByteBuffer> messages = new LinkedBlockingQueue<>();
+        final BlockingQueue<ByteBuffer> pongs = new LinkedBlockingQueue<>();
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket ws, ByteBuffer data, boolean last) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            partial.writeBytes(bytes);
+            if (last) {
+                messages.add(ByteBuffer.wrap(partial.toByteArray()));
+                partial.reset();
+            }
+            ws.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket ws, ByteBuffer message) {
+            pongs.add(message);
+            ws.request(1);
+            return null;
+        }
+    }
+
+    private WebSocket connect(Client client) throws Exception {
+        WebSocket ws = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create("ws://127.0.0.1:" + server.getPort() + "/state"), client)
+                .get(10, TimeUnit.SECONDS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getClientCount() == 0 && System.nanoTime() < deadline) Thread.sleep(5);
+        assertEquals(1, server.getClientCount());
+        return ws;
+    }
+
+    // Publishes until the client has a message, since the upgrade is handled on the server's own thread
+    private ByteBuffer next(Client client, long positionMicros) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer m = client.messages.poll(20, TimeUnit.MILLISECONDS);
+            if (m != null) return m;
+            server.publish(vis, positionMicros);
+        }
+        return null;
+    }
+
+    @Test
+    void servesThePage() throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            assertTrue(response.contains("text/html"), response);
+        }
+    }
+
+    @Test
+    void streamsKeyframeThenDeltas() throws Exception {
+        Client client = new Client();
+        WebSocket ws = connect(client);
+        ws.request(1);
+        vis.onMidi(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 1, 19, 0), -1);
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_ON, 1, 60, 100), -1);
+
+        ByteBuffer keyframe = next(client, 2_500_000);
+        assertNotNull(keyframe, "no keyframe");
+        assertEquals(StateServer.KEYFRAME, keyframe.get(0));
+        assertEquals(2500, keyframe.getInt(5));
+        assertEquals(16, keyframe.getShort(9));
+        assertTrue(hasRecord(keyframe, StateServer.NOTE_ON, 1, 60), "note in keyframe");
+        assertTrue(hasRecord(keyframe, StateServer.PROGRAM, 1, 19), "program in keyframe");
+
+        vis.onMidi(new ShortMessage(ShortMessage.NOTE_OFF, 1, 60, 0), -1);
+        server.publish(vis, 2_600_000);
+        ByteBuffer delta = client.messages.poll(10, TimeUnit.SECONDS);
+        assertNotNull(delta, "no delta");
+        assertEquals(StateServer.DELTA, delta.get(0));
+        assertTrue(hasRecord(delta, StateServer.NOTE_OFF, 1, 60), "note off in delta");
+
+        ws.sendPing(ByteBuffer.wrap(new byte[] {1, 2, 3})).get(10, TimeUnit.SECONDS);
+        ByteBuffer pong = client.pongs.poll(10, TimeUnit.SECONDS);
+        assertNotNull(pong, "no pong");
+        assertEquals(ByteBuffer.wrap(new byte[] {1, 2, 3}), pong);
+
+        ws.sendClose(WebSocket.NORMAL_CLOSURE, "").get(10, TimeUnit.SECONDS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getClientCount() > 0 && System.nanoTime() < deadline) Thread.sleep(5);
+        assertEquals(0, server.getClientCount());
+    }
+
+    // Records of the note and program ops are u8 op, u16 channel, u8 value; levels and flags are skipped over
+    private static boolean hasRecord(ByteBuffer message, int op, int channel, int value) {
+        int i = 11;
+        while (i < message.limit()) {
+            int o = message.get(i);
+            int ch = message.getShort(i + 1);
+            if (o == op && ch == channel && (message.get(i + 3) & 0xFF) == value) return true;
+            i += o == StateServer.LEVELS ? 5 : 4;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TeeReceiverTest {
+    private static final class Recorder implements Receiver {
+        final List<String> sent = new ArrayList<>();
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            ShortMessage sm = (ShortMessage) message;
+            sent.add(sm.getCommand() + "/" + sm.getChannel() + "/" + sm.getData1());
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static void send(TeeReceiver tee, int command, int channel, int data1, int data2) throws Exception {
+        tee.send(new ShortMessage(command, channel, data1, data2), -1);
+    }
+
+    @Test
+    void mutedChannelStillGetsReleases() throws Exception {
+        MidiVisualizer vis = new MidiVisualizer();
+        TeeReceiver tee = new TeeReceiver(vis);
+        Recorder out = new Recorder();
+        tee.setTarget(out);
+        vis.setMute(3, true);
+        send(tee, ShortMessage.NOTE_ON, 3, 60, 100);
+        send(tee, ShortMessage.CONTROL_CHANGE, 3, 7, 90);
+        send(tee, ShortMessage.PROGRAM_CHANGE, 3, 5, 0);
+        // what the sequencer sends on stop, seek and end of sequence has to reach a muted channel too
+        send(tee, ShortMessage.NOTE_OFF, 3, 60, 0);
+        send(tee, ShortMessage.NOTE_ON, 3, 61, 0);
+        send(tee, ShortMessage.CONTROL_CHANGE, 3, 64, 0);
+        send(tee, ShortMessage.CONTROL_CHANGE, 3, 120, 0);
+        send(tee, ShortMessage.CONTROL_CHANGE, 3, 121, 0);
+        send(tee, ShortMessage.CONTROL_CHANGE, 3, 123, 0);
+        send(tee, ShortMessage.NOTE_ON, 4, 60, 100);
+        assertEquals(List.of("128/3/60", "144/3/61", "176/3/64", "176/3/120", "176/3/121", "176/3/123", "144/4/60"),
+                out.sent);
+    }
+
+    @Test
+    void soloSilencesTheOthers() throws Exception {
+        MidiVisualizer vis = new MidiVisualizer();
+        TeeReceiver tee = new TeeReceiver(vis);
+        Recorder out = new Recorder();
+        tee.setTarget(out);
+        vis.setSolo(2, true);
+        send(tee, ShortMessage.NOTE_ON, 2, 60, 100);
+        send(tee, ShortMessage.NOTE_ON, 5, 60, 100);
+        send(tee, ShortMessage.CONTROL_CHANGE, 5, 123, 0);
+        vis.setSolo(2, false);
+        send(tee, ShortMessage.NOTE_ON, 5, 62, 100);
+        assertEquals(List.of("144/2/60", "176/5/123", "144/5/62"), out.sent);
+    }
+}
@@ -0,0 +1,79 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TempoMapTest {
+    private static MidiEvent tempo(int mpq, long tick) throws Exception {
+        byte[] d = {(byte) (mpq >> 16), (byte) (mpq >> 8), (byte) mpq};
+        return new MidiEvent(new MetaMessage(0x51, d, 3), tick);
+    }
+
+    // Tempo changes on the first track, including two at one tick, and one on a later track that is not followed
+    private static Sequence multiTempo() throws Exception {
+        Sequence seq = new Sequence(Sequence.PPQ, 96);
+        Track conductor = seq.createTrack();
+        conductor.add(tempo(400_000, 0));
+        conductor.add(tempo(750_001, 500));
+        conductor.add(tempo(300_000, 1000));
+        conductor.add(tempo(333_333, 1000));
+        conductor.add(tempo(1_000_000, 2777));
+        Track notes = seq.createTrack();
+        notes.add(tempo(100_000, 200));
+        notes.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 0));
+        notes.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 4001));
+        return seq;
+    }
+
+    @Test
+    void lengthMatchesTheSequence() throws Exception {
+        Sequence seq = multiTempo();
+        TempoMap map = TempoMap.of(seq);
+        assertEquals(4, map.size()); // the tick 0 tempo replaces the default
+        assertEquals(seq.getTickLength(), map.getTickLength());
+        assertEquals(seq.getMicrosecondLength(), map.getLengthMicros());
+        assertEquals(333_333, map.tempoAt(1000));
+        assertEquals(400_000, map.tempoAt(200));
+    }
+
+    @Test
+    void positionsMatchTheSequencer() throws Exception {
+        Sequence seq = multiTempo();
+        TempoMap map = TempoMap.of(seq);
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        sequencer.open();
+        try {
+            sequencer.setSequence(seq);
+            for (long tick = 0; tick <= seq.getTickLength(); tick += 37) {
+                sequencer.setTickPosition(tick);
+                assertEquals(sequencer.getMicrosecondPosition(), map.toMicros(tick), "tick " + tick);
+                long back = map.toTick(map.toMicros(tick));
+                assertTrue(Math.abs(back - tick) <= 1, tick + " came back as " + back);
+            }
+        } finally {
+            sequencer.close();
+        }
+    }
+
+    @Test
+    void defaultsWithoutTempoEvents() throws Exception {
+        Sequence seq = new Sequence(Sequence.PPQ, 480);
+        assertEquals(1, TempoMap.of(seq).size());
+        Track track = seq.createTrack();
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), 960));
+        TempoMap map = TempoMap.of(seq);
+        assertEquals(500_000, map.tempoAt(0));
+        assertEquals(1_000_000, map.toMicros(960));
+        assertEquals(seq.getMicrosecondLength(), map.getLengthMicros());
+    }
+}
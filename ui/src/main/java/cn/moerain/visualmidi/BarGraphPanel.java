@@ -3,20 +3,17 @@ package cn.moerain.visualmidi;
 import javax.swing.*;
 import java.awt.*;
 
-public class BarGraphPanel extends JPanel {
-    private final MidiVisualizer visualizer;
-    private final int channel;
+public class BarGraphPanel extends ChannelPanel {
 
     public BarGraphPanel(MidiVisualizer visualizer, int channel) {
-        this.visualizer = visualizer;
-        this.channel = channel;
+        super(visualizer, channel);
         setPreferredSize(new Dimension(1000, 110));
         setBackground(new Color(30, 30, 30));
     }
 
     private static Color channelColor(int ch) {
         // Distinct-ish colors for channels
-        float hue = (ch / 16.0f);
+        float hue = (ch % MidiVisualizer.CHANNELS_PER_PORT) / 16.0f;
         return Color.getHSBColor(hue, 0.6f, 0.95f);
     }
 
@@ -28,27 +25,21 @@ public class BarGraphPanel extends JPanel {
         int h = getHeight();
 
         // background grid
-        g2.setColor(new Color(50, 50, 50));
-        for (int i = 0; i < 10; i++) {
-            int y = i * h / 10;
-            g2.drawLine(0, y, w, y);
+        if (detail == Detail.FULL) {
+            g2.setColor(new Color(50, 50, 50));
+            for (int i = 0; i < 10; i++) {
+                int y = i * h / 10;
+                g2.drawLine(0, y, w, y);
+            }
         }
 
-        String title = String.format("Ch %02d - %s", channel + 1, visualizer.getChannel(channel).getInstrumentName());
         g2.setColor(Color.WHITE);
         g2.setFont(g2.getFont().deriveFont(Font.BOLD, 12f));
-        g2.drawString(title, 8, 16);
+        g2.drawString(title(), 8, 16);
 
-        // Compute volume over recent waveform as RMS and peak
-        float[] wf = visualizer.getChannel(channel).getRecentWaveform(Math.max(64, w));
-        float peak = 0f;
-        double sumSq = 0.0;
-        for (float v : wf) {
-            float av = Math.abs(v);
-            if (av > peak) peak = av;
-            sumSq += v * v;
-        }
-        float rms = wf.length > 0 ? (float) Math.sqrt(sumSq / wf.length) : 0f;
+        // Volume over recent waveform as RMS and peak
+        float peak = frame.peak();
+        float rms = frame.rms();
 
         int barLeft = 8;
         int barTop = 24;
@@ -57,7 +48,11 @@ public class BarGraphPanel extends JPanel {
 
         // Frame
         g2.setColor(new Color(70, 70, 70));
-        g2.fillRoundRect(barLeft, barTop, barWidth, barHeight, 8, 8);
+        if (detail == Detail.FULL) {
+            g2.fillRoundRect(barLeft, barTop, barWidth, barHeight, 8, 8);
+        } else {
+            g2.fillRect(barLeft, barTop, barWidth, barHeight);
+        }
 
         // Draw volume bars stacked: RMS (darker) then Peak (lighter) to its height
         int rmsHeight = Math.round(barHeight * clamp(rms, 0f, 1f));
@@ -70,12 +65,17 @@ public class BarGraphPanel extends JPanel {
         g2.setColor(col);
         g2.fillRect(barLeft + 2, baseY - peakHeight, barWidth - 4, Math.max(2, peakHeight));
 
-        // Scale marks
+        // Scale marks; labels only at full detail, none at all at minimal
+        if (detail == Detail.MINIMAL) {
+            g2.dispose();
+            return;
+        }
         g2.setColor(new Color(200, 200, 200, 140));
         g2.setFont(g2.getFont().deriveFont(11f));
         for (int i = 0; i <= 5; i++) {
             int yy = baseY - (i * barHeight / 5);
             g2.drawLine(barLeft, yy, barLeft + barWidth, yy);
+            if (detail != Detail.FULL) continue;
             String label = switch (i) {
                 case 0 -> "0%";
                 case 1 -> "20%";
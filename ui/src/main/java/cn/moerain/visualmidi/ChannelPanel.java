@@ -0,0 +1,109 @@
+package cn.moerain.visualmidi;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Base class for the per-channel rows in the channels view. Rows draw the latest
+ * {@link ChannelFrame} published by the {@link ChannelAnalyzer} and remember which frame
+ * they last painted, so the view can skip repainting rows with nothing new to show.
+ * <p>
+ * Rows paint at the {@link Detail} the channels view's {@link DetailGovernor} picks, and add up their
+ * own paint time for it.
+ */
+public abstract class ChannelPanel extends JPanel {
+    /** How much a row draws; cheaper levels keep the frame rate when painting falls behind. */
+    public enum Detail {
+        FULL(0), REDUCED(250), MINIMAL(1000);
+
+        /** Longest a row's labels may lag behind the channel, in milliseconds. */
+        public final int labelMillis;
+
+        Detail(int labelMillis) {
+            this.labelMillis = labelMillis;
+        }
+    }
+
+    protected final MidiVisualizer visualizer;
+    protected final int channel;
+    /** Frame being painted; set before subclasses paint. */
+    protected ChannelFrame frame = ChannelFrame.EMPTY;
+    protected Detail detail = Detail.FULL;
+    private ChannelFrame paintedFrame;
+    private long paintNanos;
+    private String title;
+    private long titleNanos;
+
+    protected ChannelPanel(MidiVisualizer visualizer, int channel) {
+        this.visualizer = visualizer;
+        this.channel = channel;
+    }
+
+    /**
+     * True when a new frame was published since the last paint or the view is still animating
+     * a decay. Subclasses with their own animation state extend this.
+     */
+    public boolean needsRepaint() {
+        return visualizer.getChannel(channel).getFrame() != paintedFrame;
+    }
+
+    /**
+     * Waveform history this row wants the analyzer to keep, in samples. Only rows that need the
+     * waveform or bands are synthesized at all; level-only rows get analytic peak and RMS.
+     */
+    public int requiredSamples() {
+        return Math.max(64, getWidth());
+    }
+
+    /** Whether this row draws the samples themselves rather than just levels. */
+    public boolean needsWaveform() {
+        return false;
+    }
+
+    /** Whether this row draws band levels. */
+    public boolean needsBands() {
+        return false;
+    }
+
+    public Detail getDetail() {
+        return detail;
+    }
+
+    /** Changes the detail level; the row repaints at the next tick. */
+    public void setDetail(Detail detail) {
+        if (this.detail == detail) return;
+        this.detail = detail;
+        paintedFrame = null;
+        title = null;
+    }
+
+    /** Time spent painting this row (children included) since the last call. */
+    public long takePaintNanos() {
+        long n = paintNanos;
+        paintNanos = 0;
+        return n;
+    }
+
+    /** "Ch 01 - Piano" title, refreshed no more often than the detail level allows. */
+    protected String title() {
+        long now = System.nanoTime();
+        if (title == null || now - titleNanos >= detail.labelMillis * 1_000_000L) {
+            title = String.format("Ch %s - %s", visualizer.channelLabel(channel), visualizer.getChannel(channel).getInstrumentName());
+            titleNanos = now;
+        }
+        return title;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        long start = System.nanoTime();
+        super.paint(g);
+        paintNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        frame = paintedFrame = visualizer.getChannel(channel).getFrame();
+        super.paintComponent(g);
+    }
+}
@@ -0,0 +1,86 @@
+package cn.moerain.visualmidi;
+
+import java.util.Locale;
+
+/**
+ * Frame-budget governor for the channels view. Each tick it is told how long the frame's work took
+ * (analysis plus painting the rows, or the timer's lateness if the event thread was held up longer)
+ * and steps the rows' {@link ChannelPanel.Detail} down after a run of frames over budget, and back up
+ * after a longer run with plenty to spare, so a heavy file costs detail rather than frame rate.
+ * <p>
+ * The budget is {@code -Dvisualmidi.frameBudget} milliseconds (default 10, leaving the rest of a 16 ms
+ * frame for input); {@code -Dvisualmidi.detail=full|reduced|minimal} pins a level instead.
+ */
+final class DetailGovernor {
+    private static final double DEFAULT_BUDGET_MS = 10;
+    // smoothing of the per-frame work, about the last 5 frames
+    private static final double SMOOTHING = 0.2;
+    // frames over budget before stepping down, about 130 ms at 60 fps
+    private static final int DOWN_FRAMES = 8;
+    // frames with headroom before stepping up, about 2 s; long so a passing quiet spell does not flap
+    private static final int UP_FRAMES = 120;
+    // stepping up roughly doubles the work, so it has to fit in well under half the budget
+    private static final double HEADROOM = 0.35;
+
+    private final long budgetNanos;
+    private final ChannelPanel.Detail pinned;
+    private ChannelPanel.Detail detail;
+    private double average = -1;
+    private int over;
+    private int under;
+
+    DetailGovernor() {
+        this((long) (Double.parseDouble(System.getProperty("visualmidi.frameBudget", String.valueOf(DEFAULT_BUDGET_MS))) * 1e6),
+                pinned(System.getProperty("visualmidi.detail")));
+    }
+
+    DetailGovernor(long budgetNanos, ChannelPanel.Detail pinned) {
+        this.budgetNanos = budgetNanos;
+        this.pinned = pinned;
+        this.detail = pinned != null ? pinned : ChannelPanel.Detail.FULL;
+    }
+
+    private static ChannelPanel.Detail pinned(String value) {
+        if (value == null || value.isBlank() || "auto".equalsIgnoreCase(value)) return null;
+        try {
+            return ChannelPanel.Detail.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown detail level " + value + ", adapting automatically");
+            return null;
+        }
+    }
+
+    ChannelPanel.Detail getDetail() {
+        return detail;
+    }
+
+    /** Records one frame's work; returns true when the detail level changed. */
+    boolean frame(long workNanos) {
+        if (pinned != null) return false;
+        average = average < 0 ? workNanos : average + SMOOTHING * (workNanos - average);
+        if (average > budgetNanos) {
+            under = 0;
+            if (++over >= DOWN_FRAMES && detail.ordinal() < ChannelPanel.Detail.values().length - 1) {
+                return step(ChannelPanel.Detail.values()[detail.ordinal() + 1]);
+            }
+        } else if (average < budgetNanos * HEADROOM) {
+            over = 0;
+            if (++under >= UP_FRAMES && detail.ordinal() > 0) {
+                return step(ChannelPanel.Detail.values()[detail.ordinal() - 1]);
+            }
+        } else {
+            over = 0;
+            under = 0;
+        }
+        return false;
+    }
+
+    private boolean step(ChannelPanel.Detail next) {
+        detail = next;
+        // what was measured at the old level says nothing about the new one
+        average = -1;
+        over = 0;
+        under = 0;
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package cn.moerain.visualmidi;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.Arrays;
+
+/**
+ * Whole-song strip above the channels: one lane per channel (channels are merged into groups on
+ * multi-port files) drawn from the {@link EnvelopePyramid}, plus the playback cursor. The wheel
+ * zooms around the mouse, dragging pans, a click seeks and a double click shows the whole song again.
+ */
+public class OverviewPanel extends JPanel {
+    private static final int HEIGHT = 96;
+    private static final int MAX_LANES = 32;
+    private static final long MIN_SPAN_MICROS = 1_000_000;
+
+    private final MidiEngine engine;
+    private long viewFrom = 0;
+    private long viewSpan = 0; // 0: whole song
+    private float[] lo = new float[0], hi = new float[0], laneLo = new float[0], laneHi = new float[0];
+    private int pressX;
+    private long pressFrom;
+    private boolean dragged;
+
+    public OverviewPanel(MidiEngine engine) {
+        this.engine = engine;
+        setPreferredSize(new Dimension(1000, HEIGHT));
+        setBackground(new Color(20, 20, 20));
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressX = e.getX();
+                pressFrom = viewFrom;
+                dragged = false;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                long length = engine.getLengthMicros();
+                if (length <= 0 || getWidth() == 0) return;
+                dragged = true;
+                long span = span(length);
+                setView(pressFrom - (long) ((e.getX() - pressX) * (double) span / getWidth()), span, length);
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                long length = engine.getLengthMicros();
+                if (length <= 0 || dragged) return;
+                if (e.getClickCount() == 2) {
+                    viewFrom = 0;
+                    viewSpan = 0;
+                    repaint();
+                } else {
+                    engine.seek(toMicros(e.getX(), length));
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                long length = engine.getLengthMicros();
+                if (length <= 0 || getWidth() == 0) return;
+                long at = toMicros(e.getX(), length);
+                long span = span(length);
+                long next = (long) (span * Math.pow(1.25, e.getPreciseWheelRotation()));
+                next = Math.max(MIN_SPAN_MICROS, Math.min(length, next));
+                // keep the time under the mouse where it is
+                setView(at - (long) (e.getX() * (double) next / getWidth()), next, length);
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        // the envelope fills in as the song plays; a few updates per second are enough for a strip this size
+        new Timer(100, e -> {
+            if (isShowing() && engine.getAnalyzer().getOverview() != null) repaint();
+        }).start();
+    }
+
+    private long span(long length) {
+        return viewSpan <= 0 || viewSpan >= length ? length : viewSpan;
+    }
+
+    private void setView(long from, long span, long length) {
+        viewSpan = span >= length ? 0 : span;
+        viewFrom = viewSpan == 0 ? 0 : Math.max(0, Math.min(length - span, from));
+        repaint();
+    }
+
+    private long toMicros(int x, long length) {
+        return viewFrom + (long) (x * (double) span(length) / Math.max(1, getWidth()));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        EnvelopePyramid pyramid = engine.getAnalyzer().getOverview();
+        long length = engine.getLengthMicros();
+        int w = getWidth();
+        int h = getHeight();
+        if (pyramid == null || length <= 0 || w <= 0) return;
+        Graphics2D g2 = (Graphics2D) g.create();
+        long span = span(length);
+        long to = viewFrom + span;
+        if (lo.length < w) {
+            lo = new float[w];
+            hi = new float[w];
+            laneLo = new float[w];
+            laneHi = new float[w];
+        }
+
+        int channels = pyramid.getChannelCount();
+        int lanes = Math.min(channels, MAX_LANES);
+        int perLane = (channels + lanes - 1) / lanes;
+        lanes = (channels + perLane - 1) / perLane;
+        float laneHeight = h / (float) lanes;
+        for (int lane = 0; lane < lanes; lane++) {
+            Arrays.fill(laneLo, 0, w, 0f);
+            Arrays.fill(laneHi, 0, w, 0f);
+            for (int ch = lane * perLane; ch < Math.min(channels, (lane + 1) * perLane); ch++) {
+                pyramid.query(ch, viewFrom, to, w, lo, hi);
+                for (int x = 0; x < w; x++) {
+                    if (lo[x] < laneLo[x]) laneLo[x] = lo[x];
+                    if (hi[x] > laneHi[x]) laneHi[x] = hi[x];
+                }
+            }
+            float mid = (lane + 0.5f) * laneHeight;
+            float scale = laneHeight / 2f - 0.5f;
+            float hue = (lane * perLane % MidiVisualizer.CHANNELS_PER_PORT) / 16f;
+            g2.setColor(Color.getHSBColor(hue, 0.6f, 0.9f));
+            for (int x = 0; x < w; x++) {
+                if (laneHi[x] == 0f && laneLo[x] == 0f) continue;
+                g2.drawLine(x, Math.round(mid - laneHi[x] * scale), x, Math.round(mid - laneLo[x] * scale));
+            }
+        }
+
+        // the overview's samples are placed at heard time, so the cursor is too
+        long pos = engine.getHeardPositionMicros();
+        if (pos >= viewFrom && pos <= to) {
+            int x = (int) ((pos - viewFrom) * (double) w / span);
+            g2.setColor(Color.WHITE);
+            g2.drawLine(x, 0, x, h);
+        }
+        g2.dispose();
+    }
+}
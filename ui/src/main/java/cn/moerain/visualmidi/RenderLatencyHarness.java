@@ -0,0 +1,210 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.ShortMessage;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * Headless note-to-pixel latency of the channel views. For each view a sender thread injects single
+ * note-ons into a {@link TeeReceiver} at a random point of the frame period, while a frame thread ticks
+ * the {@link ChannelAnalyzer} and paints the row offscreen at the views' cadence, as the channels view
+ * does; an event counts as visible on the first painted frame that differs from the quiet frame before
+ * it. The time is taken when that frame is finished, so display scan-out comes on top.
+ * <p>
+ * Usage: {@code RenderLatencyHarness [--events 40] [--fps 62.5] [--latency 0] [--budget 50]
+ * [--views waveform,bars,wmp,sc88] [--detail full|reduced|minimal]}, or {@code ./gradlew renderLatency --args="..."}. Exits with 1 when
+ * a view's p99 is over the budget in milliseconds.
+ */
+public final class RenderLatencyHarness {
+    private static final int WIDTH = 1100;
+    private static final int HEIGHT = 120;
+    private static final int CHANNEL = 0;
+    // changed pixels that count as the note showing, above antialiasing noise
+    private static final int MIN_CHANGED_PIXELS = 8;
+    // frames a view has to stay unchanged before its image is taken as the quiet baseline
+    private static final int QUIET_FRAMES = 3;
+    private static final long TIMEOUT_NANOS = 1_000_000_000L;
+
+    static final Map<String, BiFunction<MidiVisualizer, Integer, ChannelPanel>> VIEWS = new LinkedHashMap<>();
+
+    static {
+        VIEWS.put("waveform", WaveformPanel::new);
+        VIEWS.put("bars", BarGraphPanel::new);
+        VIEWS.put("wmp", WMPSpectrumPanel::new);
+        VIEWS.put("sc88", SC88ProPanel::new);
+    }
+
+    record ViewResult(String view, int events, int timed, double p50, double p90, double p99, double max,
+                      double paintP50) {}
+
+    private RenderLatencyHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int events = Integer.parseInt(opts.getOrDefault("events", "40"));
+        // the channels view repaints from a 16 ms Swing timer
+        double fps = Double.parseDouble(opts.getOrDefault("fps", "62.5"));
+        long latencyMicros = Long.parseLong(opts.getOrDefault("latency", "0")) * 1000;
+        double budget = Double.parseDouble(opts.getOrDefault("budget", "50"));
+        String[] views = opts.getOrDefault("views", String.join(",", VIEWS.keySet())).split(",");
+        ChannelPanel.Detail detail = ChannelPanel.Detail.valueOf(opts.getOrDefault("detail", "full").toUpperCase(Locale.ROOT));
+
+        System.out.printf(Locale.ROOT, "VisualMIDI note-to-pixel: events=%d fps=%.1f output latency=%d ms budget=%.1f ms detail=%s kernels=%s%n",
+                events, fps, latencyMicros / 1000, budget, detail.name().toLowerCase(Locale.ROOT), SignalKernels.name());
+        System.out.printf(Locale.ROOT, "%-9s %7s %8s %8s %8s %8s %9s  %s%n",
+                "view", "timed", "p50 ms", "p90 ms", "p99 ms", "max ms", "paint ms", "result");
+        boolean over = false;
+        for (String name : views) {
+            BiFunction<MidiVisualizer, Integer, ChannelPanel> factory = VIEWS.get(name.trim());
+            if (factory == null) throw new IllegalArgumentException("Unknown view " + name + ", expected one of " + VIEWS.keySet());
+            run("warm-up", factory, detail, Math.max(4, events / 4), fps, latencyMicros); // so the JIT is done with the paths
+            ViewResult r = run(name.trim(), factory, detail, events, fps, latencyMicros);
+            boolean ok = r.timed == r.events && r.p99 <= budget;
+            over |= !ok;
+            System.out.printf(Locale.ROOT, "%-9s %4d/%-2d %8.2f %8.2f %8.2f %8.2f %9.2f  %s%n", r.view, r.timed, r.events,
+                    r.p50, r.p90, r.p99, r.max, r.paintP50, ok ? "ok" : "OVER");
+        }
+        System.exit(over ? 1 : 0);
+    }
+
+    static ViewResult run(String view, BiFunction<MidiVisualizer, Integer, ChannelPanel> factory,
+                                  ChannelPanel.Detail detail, int events, double fps, long latencyMicros) throws InterruptedException {
+        MidiVisualizer visualizer = new MidiVisualizer();
+        visualizer.setOutputLatencyMicros(latencyMicros);
+        ChannelAnalyzer analyzer = new ChannelAnalyzer(visualizer);
+        TeeReceiver tee = new TeeReceiver(visualizer);
+        ChannelPanel panel = factory.apply(visualizer, CHANNEL);
+        panel.setDetail(detail);
+        panel.setSize(WIDTH, HEIGHT);
+        layout(panel);
+        analyzer.configure(panel.requiredSamples(), panel.needsBands(), panel.needsWaveform());
+
+        long period = (long) (1e9 / fps);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int[] previous = new int[WIDTH * HEIGHT];
+        int[] baseline = new int[WIDTH * HEIGHT];
+        long[] latency = new long[events];
+        long[] paint = new long[events * 64];
+        int paints = 0;
+        int timed = 0;
+        Random random = new Random(1);
+
+        Thread sender = null;
+        long[] sentAt = new long[1];
+        int quiet = 0;
+        int sent = 0;
+        long next = System.nanoTime();
+        while (sent < events || sender != null) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += period;
+            // frame: analyze the row, then paint it if it has anything new, as the channels view does
+            analyzer.tick(CHANNEL, CHANNEL);
+            if (panel.needsRepaint() || quiet < QUIET_FRAMES) {
+                long p0 = System.nanoTime();
+                Graphics2D g = image.createGraphics();
+                panel.paint(g);
+                g.dispose();
+                image.getRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+                long done = System.nanoTime();
+                if (paints < paint.length) paint[paints++] = done - p0;
+                if (sender != null) {
+                    long at;
+                    synchronized (sentAt) {
+                        at = sentAt[0];
+                    }
+                    if (at != 0 && changed(pixels, baseline)) {
+                        latency[timed++] = done - at;
+                        sender = finish(sender, tee);
+                    }
+                    quiet = 0;
+                } else {
+                    quiet = Arrays.equals(pixels, previous) ? quiet + 1 : 0;
+                }
+                System.arraycopy(pixels, 0, previous, 0, pixels.length);
+            } else if (sender == null) {
+                quiet++;
+            }
+            if (sender != null) {
+                // checked every frame, painted or not, so a note that never marks the view dirty is a miss
+                long at;
+                synchronized (sentAt) {
+                    at = sentAt[0];
+                }
+                if (at != 0 && System.nanoTime() - at > TIMEOUT_NANOS) sender = finish(sender, tee);
+            }
+            if (sender == null && quiet >= QUIET_FRAMES && sent < events) {
+                // the view has settled: this frame is what "nothing yet" looks like
+                System.arraycopy(previous, 0, baseline, 0, baseline.length);
+                sentAt[0] = 0;
+                long delay = (long) (random.nextDouble() * period);
+                int note = 48 + random.nextInt(24);
+                sender = new Thread(() -> {
+                    LockSupport.parkNanos(delay);
+                    try {
+                        ShortMessage on = new ShortMessage(ShortMessage.NOTE_ON, CHANNEL, note, 100);
+                        synchronized (sentAt) {
+                            sentAt[0] = System.nanoTime();
+                        }
+                        tee.send(on, -1);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, "render-latency-sender");
+                sender.start();
+                sent++;
+            }
+        }
+        analyzer.close();
+        long[] l = Arrays.copyOf(latency, timed);
+        long[] p = Arrays.copyOf(paint, paints);
+        Arrays.sort(l);
+        Arrays.sort(p);
+        return new ViewResult(view, events, timed, percentile(l, 0.50), percentile(l, 0.90), percentile(l, 0.99),
+                l.length > 0 ? l[l.length - 1] / 1e6 : 0, percentile(p, 0.50));
+    }
+
+    // Releases every note once the probe has been seen, so the view decays back to quiet
+    private static Thread finish(Thread sender, TeeReceiver tee) throws InterruptedException {
+        sender.join();
+        try {
+            for (int note = 0; note < 128; note++) tee.send(new ShortMessage(ShortMessage.NOTE_OFF, CHANNEL, note, 0), -1);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return null;
+    }
+
+    private static boolean changed(int[] pixels, int[] baseline) {
+        int n = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != baseline[i] && ++n >= MIN_CHANGED_PIXELS) return true;
+        }
+        return false;
+    }
+
+    // Lays out the row and its children as a shown frame would, since it is painted without one
+    private static void layout(Component c) {
+        if (c instanceof Container container) {
+            container.doLayout();
+            for (Component child : container.getComponents()) layout(child);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -11,22 +11,16 @@ import java.util.Arrays;
  * - Level meter with peak, simple activity LEDs for notes
  * - Mute/Solo per channel and program up/down buttons (track controls)
  */
-public class SC88ProPanel extends JPanel {
-    private final MidiVisualizer visualizer;
-    private final int channel;
-
-    // simple track controls state (mute/solo at UI level only)
-    private boolean muted = false;
-    private boolean solo = false;
+public class SC88ProPanel extends ChannelPanel {
 
     private final JToggleButton muteBtn = new JToggleButton("M");
     private final JToggleButton soloBtn = new JToggleButton("S");
     private final JButton progDecBtn = new JButton("-");
     private final JButton progIncBtn = new JButton("+");
+    private final Timer labelTimer;
 
     public SC88ProPanel(MidiVisualizer visualizer, int channel) {
-        this.visualizer = visualizer;
-        this.channel = channel;
+        super(visualizer, channel);
         setPreferredSize(new Dimension(1000, 110));
         setBackground(new Color(25, 25, 25));
         setLayout(new BorderLayout());
@@ -37,7 +31,7 @@ public class SC88ProPanel extends JPanel {
         c.insets = new Insets(2, 6, 2, 6);
         c.anchor = GridBagConstraints.WEST;
 
-        JLabel part = label(String.format("PART %02d", channel + 1));
+        JLabel part = label("PART " + visualizer.channelLabel(channel));
         part.setFont(part.getFont().deriveFont(Font.BOLD, 12f));
         c.gridx = 0; c.gridy = 0; left.add(part, c);
 
@@ -60,7 +54,9 @@ public class SC88ProPanel extends JPanel {
         btns.add(muteBtn); btns.add(soloBtn); btns.add(progDecBtn); btns.add(progIncBtn);
         c.gridy = 3; left.add(btns, c);
 
-        // wire controls
+        // wire controls (rows are recreated on scroll, so start from the visualizer's state)
+        muteBtn.setSelected(visualizer.isMuted(channel));
+        soloBtn.setSelected(visualizer.isSolo(channel));
         muteBtn.addActionListener(e -> visualizer.setMute(channel, muteBtn.isSelected()));
         soloBtn.addActionListener(e -> visualizer.setSolo(channel, soloBtn.isSelected()));
         // Program +/- only update label locally by simulating program change in visualizer state
@@ -75,16 +71,33 @@ public class SC88ProPanel extends JPanel {
 
         add(left, BorderLayout.WEST);
 
-        // Update labels timer
-        Timer t = new Timer(100, e -> {
+        // Update labels timer (runs only while the strip is on screen, see addNotify/removeNotify)
+        labelTimer = new Timer(100, e -> {
             String name = visualizer.getChannel(channel).getInstrumentName();
             instr.setText(name);
             // Program number unknown directly; parse from GM name index if possible
             // We store it implicitly; display just the name as primary.
             pgm.setText("  ");
-            repaint();
+            // the meter itself is repainted by the channels view when the channel is active
         });
-        t.start();
+    }
+
+    @Override
+    public void setDetail(Detail detail) {
+        super.setDetail(detail);
+        labelTimer.setDelay(Math.max(100, detail.labelMillis));
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        labelTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        labelTimer.stop();
+        super.removeNotify();
     }
 
     private static JLabel label(String s) {
@@ -120,10 +133,8 @@ public class SC88ProPanel extends JPanel {
         int meterX = w - meterW - 10;
         int meterY = top;
 
-        float[] wf = visualizer.getChannel(channel).getRecentWaveform(Math.max(256, meterW));
-        float peak = 0f; double sum = 0;
-        for (float v : wf) { float a = Math.abs(v); if (a>peak) peak=a; sum += v*v; }
-        float rms = wf.length>0 ? (float)Math.sqrt(sum / wf.length) : 0f;
+        float peak = frame.peak();
+        float rms = frame.rms();
 
         // segments
         int segments = 24;
@@ -135,7 +146,12 @@ public class SC88ProPanel extends JPanel {
         int rmsSegs = Math.round(clamp(rms,0,1) * segments);
         int peakSegs = Math.round(clamp(peak,0,1) * segments);
 
-        // draw two rows L/R style (we only have mono visual; duplicate)
+        // draw two rows L/R style (we only have mono visual; duplicate); one is enough at minimal detail
+        if (detail == Detail.MINIMAL) {
+            drawLedRow(g2, meterX, meterY, segW, segGap, meterH - 2, segments, rmsSegs, peakSegs);
+            g2.dispose();
+            return;
+        }
         drawLedRow(g2, meterX, meterY, segW, segGap, segH, segments, rmsSegs, peakSegs);
         drawLedRow(g2, meterX, meterY + segH + 6, segW, segGap, segH, segments, rmsSegs, peakSegs);
 
@@ -146,19 +162,31 @@ public class SC88ProPanel extends JPanel {
         for (int i = 0; i < segments; i++) {
             int sx = x + i * (segW + gap);
             Color c = ledColor(i, segments);
-            // background slot
+            // background slot; plain rectangles below full detail
             g2.setColor(new Color(25,25,25));
-            g2.fillRoundRect(sx, y, segW, h, 4, 4);
+            if (detail == Detail.FULL) {
+                g2.fillRoundRect(sx, y, segW, h, 4, 4);
+            } else {
+                g2.fillRect(sx, y, segW, h);
+            }
             // fill if under rms
             if (i < rmsSegs) {
                 g2.setColor(c);
-                g2.fillRoundRect(sx+1, y+1, segW-2, h-2, 4, 4);
+                if (detail == Detail.FULL) {
+                    g2.fillRoundRect(sx+1, y+1, segW-2, h-2, 4, 4);
+                } else {
+                    g2.fillRect(sx+1, y+1, segW-2, h-2);
+                }
             }
         }
         // peak marker
         int px = x + Math.min(segments-1, peakSegs) * (segW + gap);
         g2.setColor(Color.WHITE);
-        g2.drawRoundRect(px, y, segW, h, 4, 4);
+        if (detail == Detail.FULL) {
+            g2.drawRoundRect(px, y, segW, h, 4, 4);
+        } else {
+            g2.drawRect(px, y, segW, h);
+        }
     }
 
     private static Color ledColor(int idx, int total) {
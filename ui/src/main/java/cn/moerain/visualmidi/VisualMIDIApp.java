@@ -0,0 +1,666 @@
+package cn.moerain.visualmidi;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequencer;
+import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class VisualMIDIApp extends JFrame {
+    private static final ResourceBundle msgs = ResourceBundle.getBundle("messages", Locale.getDefault(), new UTF8Control());
+    private enum ViewMode { WAVEFORM, BARS, WMP, SC88 }
+    private final MidiEngine midiEngine;
+    private final JComboBox<DeviceOption> deviceCombo;
+    private final JButton playBtn;
+    private final JButton pauseBtn;
+    private final JButton stopBtn;
+    private final JLabel statusLabel;
+    private final ChannelsPanel channelsPanel;
+    private final JToggleButton viewToggle;
+    // controls that stay disabled until the engine part they drive has finished booting
+    private final List<JComponent> sequencerControls = new ArrayList<>();
+    private final List<JComponent> outputControls = new ArrayList<>();
+    private boolean updatingDevices = false;
+    // latency compensation the user fixed per output, by display name; outputs not listed use automatic
+    private final Map<String, Long> latencyOverrides = new HashMap<>();
+
+    private File currentMidiFile;
+    private Playlist playlist;
+
+    public VisualMIDIApp() {
+        super(MessageFormat.format(msgs.getString("app.title"), msgs.getString("mode.waveform")));
+        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        setSize(1200, 800);
+        setLocationRelativeTo(null);
+
+        this.midiEngine = new MidiEngine();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                midiEngine.close(); // the close button exits right after this
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                midiEngine.close(); // File > Exit disposes the window instead
+            }
+        });
+        this.channelsPanel = new ChannelsPanel(midiEngine.getVisualizer(), midiEngine.getAnalyzer());
+
+        setLayout(new BorderLayout());
+        setJMenuBar(createMenuBar());
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        deviceCombo = new JComboBox<>();
+        JButton refreshBtn = new JButton(msgs.getString("btn.refreshDevices"));
+        refreshBtn.addActionListener(e -> refreshDevices());
+
+        JButton openMidiBtn = new JButton(msgs.getString("btn.openMidi"));
+        openMidiBtn.addActionListener(this::openMidi);
+        JButton openSf2Btn = new JButton(msgs.getString("btn.loadSf2"));
+        openSf2Btn.addActionListener(this::openSf2);
+
+        playBtn = new JButton(msgs.getString("btn.play"));
+        pauseBtn = new JButton(msgs.getString("btn.pause"));
+        stopBtn = new JButton(msgs.getString("btn.stop"));
+        playBtn.addActionListener(e -> play());
+        pauseBtn.addActionListener(e -> pause());
+        stopBtn.addActionListener(e -> stop());
+
+        viewToggle = new JToggleButton(msgs.getString("mode.waveform"));
+        viewToggle.setToolTipText(msgs.getString("view.tooltip"));
+        viewToggle.addActionListener(e -> {
+            // cycle through modes on each click
+            ViewMode next;
+            switch (channelsPanel.getMode()) {
+                case WAVEFORM -> next = ViewMode.BARS;
+                case BARS -> next = ViewMode.WMP;
+                case WMP -> next = ViewMode.SC88;
+                default -> next = ViewMode.WAVEFORM;
+            }
+            channelsPanel.setMode(next);
+            setTitle(MessageFormat.format(msgs.getString("app.title"), switch (next) {
+                case WAVEFORM -> msgs.getString("mode.waveform");
+                case BARS -> msgs.getString("mode.bars");
+                case WMP -> msgs.getString("mode.wmp");
+                case SC88 -> msgs.getString("mode.sc88");
+            }));
+            viewToggle.setText(switch (next) {
+                case WAVEFORM -> msgs.getString("mode.waveform");
+                case BARS -> msgs.getString("mode.bars");
+                case WMP -> msgs.getString("mode.wmp");
+                case SC88 -> msgs.getString("mode.sc88");
+            });
+        });
+
+        top.add(new JLabel(msgs.getString("label.output")));
+        top.add(deviceCombo);
+        top.add(refreshBtn);
+        top.add(openSf2Btn);
+        top.add(openMidiBtn);
+        top.add(playBtn);
+        top.add(pauseBtn);
+        top.add(stopBtn);
+        top.add(viewToggle);
+        sequencerControls.addAll(List.of(openMidiBtn, playBtn, pauseBtn, stopBtn));
+        outputControls.addAll(List.of(deviceCombo, refreshBtn, openSf2Btn));
+
+        add(top, BorderLayout.NORTH);
+
+        OverviewPanel overview = new OverviewPanel(midiEngine);
+        overview.setToolTipText(msgs.getString("overview.tooltip"));
+        JScrollPane scroll = new JScrollPane(channelsPanel);
+        JPanel center = new JPanel(new BorderLayout());
+        center.add(overview, BorderLayout.NORTH);
+        center.add(scroll, BorderLayout.CENTER);
+        add(center, BorderLayout.CENTER);
+
+        statusLabel = new JLabel(msgs.getString("status.ready"));
+        add(statusLabel, BorderLayout.SOUTH);
+
+        // Device selection behavior
+        deviceCombo.addActionListener(e -> {
+            DeviceOption opt = (DeviceOption) deviceCombo.getSelectedItem();
+            if (opt != null && !updatingDevices) {
+                try {
+                    midiEngine.setOutputDevice(opt.withLatencyMicros(
+                            latencyOverrides.getOrDefault(opt.getDisplayName(), DeviceOption.AUTO_LATENCY)));
+                    status(MessageFormat.format(msgs.getString("status.outputSet"), opt.getDisplayName(),
+                            midiEngine.getOutputLatencyMicros() / 1000));
+                } catch (Exception ex) {
+                    error(MessageFormat.format(msgs.getString("error.setDevice"), ex.getMessage()));
+                }
+            }
+        });
+
+        bootEngine();
+    }
+
+    // The engine opens its devices in the background; enable each group of controls as its part comes up.
+    private void bootEngine() {
+        setEnabled(sequencerControls, false);
+        setEnabled(outputControls, false);
+        status(msgs.getString("status.starting"));
+
+        CompletableFuture<Void> sequencerReady = midiEngine.whenSequencerReady();
+        CompletableFuture<Void> outputReady = midiEngine.whenOutputReady();
+        sequencerReady.whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                error(MessageFormat.format(msgs.getString("error.midiUnavailable"), rootMessage(ex)));
+            } else {
+                setEnabled(sequencerControls, true);
+            }
+        }));
+        // device enumeration can be slow too, so populate the combo off the EDT as well
+        CompletableFuture<List<DeviceOption>> devices = CompletableFuture.supplyAsync(VisualMIDIApp::listDevices);
+        outputReady.thenCombine(devices, (v, options) -> options).whenComplete((options, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                error(MessageFormat.format(msgs.getString("error.setDevice"), rootMessage(ex)));
+            } else {
+                setDeviceOptions(options);
+                setEnabled(outputControls, true);
+            }
+        }));
+        CompletableFuture.allOf(sequencerReady, outputReady).whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+            StartupTimer.mark("engine ready (" + SignalKernels.name() + " signal kernels)");
+            if (ex == null && midiEngine.getStateServerPort() > 0) {
+                status(MessageFormat.format(msgs.getString("status.readyStreaming"), StartupTimer.elapsedMillis(),
+                        String.valueOf(midiEngine.getStateServerPort())));
+            } else if (ex == null) {
+                status(MessageFormat.format(msgs.getString("status.readyTimed"), StartupTimer.elapsedMillis()));
+            }
+            if (StartupTimer.reportEnabled()) {
+                System.out.print(StartupTimer.report());
+            }
+            if (Boolean.getBoolean("visualmidi.exitAfterStartup")) {
+                // class-data-sharing training run (see the cdsArchive Gradle task)
+                System.exit(0);
+            }
+        }));
+    }
+
+    private static void setEnabled(List<JComponent> controls, boolean enabled) {
+        for (JComponent c : controls) c.setEnabled(enabled);
+    }
+
+    private static String rootMessage(Throwable t) {
+        while (t.getCause() != null) t = t.getCause();
+        return t.getMessage();
+    }
+
+    private JMenuBar createMenuBar() {
+        JMenuBar bar = new JMenuBar();
+        JMenu file = new JMenu(msgs.getString("menu.file"));
+        JMenuItem openMidi = new JMenuItem(msgs.getString("menu.openMidi"));
+        openMidi.addActionListener(this::openMidi);
+        sequencerControls.add(openMidi);
+        JMenuItem openPlaylist = new JMenuItem(msgs.getString("menu.openPlaylist"));
+        openPlaylist.addActionListener(e -> openPlaylist());
+        JMenuItem nextTrack = new JMenuItem(msgs.getString("menu.nextTrack"));
+        nextTrack.addActionListener(e -> playlistStep(true));
+        JMenuItem previousTrack = new JMenuItem(msgs.getString("menu.previousTrack"));
+        previousTrack.addActionListener(e -> playlistStep(false));
+        sequencerControls.addAll(List.of(openPlaylist, nextTrack, previousTrack));
+        JMenuItem openSf2 = new JMenuItem(msgs.getString("menu.loadSf2"));
+        openSf2.addActionListener(this::openSf2);
+        outputControls.add(openSf2);
+        JMenuItem latency = new JMenuItem(msgs.getString("menu.outputLatency"));
+        latency.addActionListener(e -> editOutputLatency());
+        outputControls.add(latency);
+        JMenuItem measure = new JMenuItem(msgs.getString("menu.measureLatency"));
+        measure.addActionListener(e -> measureOutputLatency());
+        outputControls.add(measure);
+        JMenuItem exit = new JMenuItem(msgs.getString("menu.exit"));
+        exit.addActionListener(e -> dispose());
+        file.add(openMidi);
+        file.add(openPlaylist);
+        file.add(previousTrack);
+        file.add(nextTrack);
+        file.add(openSf2);
+        file.add(latency);
+        file.add(measure);
+        file.addSeparator();
+        file.add(exit);
+        bar.add(file);
+        JMenu tracks = new JMenu(msgs.getString("menu.tracks"));
+        // rebuilt on opening, so it always lists the tracks of the file playing now
+        tracks.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                fillTracksMenu(tracks);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+        bar.add(tracks);
+        return bar;
+    }
+
+    // Per-track mute and solo, applied at the sequencer; tracks with no channel messages are not listed
+    private void fillTracksMenu(JMenu menu) {
+        menu.removeAll();
+        for (PreparedSequence.TrackInfo info : midiEngine.getTracks()) {
+            if (!info.hasChannels()) continue;
+            int t = info.index();
+            JMenu item = new JMenu(MessageFormat.format(msgs.getString("menu.trackItem"), t + 1,
+                    info.name().isEmpty() ? msgs.getString("track.unnamed") : info.name()));
+            JCheckBoxMenuItem mute = new JCheckBoxMenuItem(msgs.getString("menu.trackMute"), midiEngine.isTrackMuted(t));
+            mute.addActionListener(e -> midiEngine.setTrackMute(t, mute.isSelected()));
+            JCheckBoxMenuItem solo = new JCheckBoxMenuItem(msgs.getString("menu.trackSolo"), midiEngine.isTrackSolo(t));
+            solo.addActionListener(e -> midiEngine.setTrackSolo(t, solo.isSelected()));
+            item.add(mute);
+            item.add(solo);
+            menu.add(item);
+        }
+        if (menu.getItemCount() == 0) {
+            JMenuItem none = new JMenuItem(msgs.getString("menu.noTracks"));
+            none.setEnabled(false);
+            menu.add(none);
+        }
+    }
+
+    private void openMidi(ActionEvent e) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(msgs.getString("dialog.chooseMidi"));
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(msgs.getString("filter.midi"), "mid", "midi") );
+        if (currentMidiFile != null) chooser.setCurrentDirectory(currentMidiFile.getParentFile());
+        int res = chooser.showOpenDialog(this);
+        if (res == JFileChooser.APPROVE_OPTION) {
+            currentMidiFile = chooser.getSelectedFile();
+            closePlaylist();
+            try {
+                midiEngine.loadMidi(currentMidiFile);
+                status(MessageFormat.format(msgs.getString("status.loadedMidi"), currentMidiFile.getName()));
+            } catch (Exception ex) {
+                error(MessageFormat.format(msgs.getString("error.loadMidi"), ex.getMessage()));
+            }
+        }
+    }
+
+    // Several MIDI files, or one playlist file, played back to back with the next ones prefetched
+    private void openPlaylist() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(msgs.getString("dialog.choosePlaylist"));
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(msgs.getString("filter.playlist"), "mid", "midi", "m3u", "m3u8"));
+        if (currentMidiFile != null) chooser.setCurrentDirectory(currentMidiFile.getParentFile());
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File[] files = chooser.getSelectedFiles();
+        try {
+            List<Playlist.Entry> entries = new ArrayList<>();
+            for (File f : files) {
+                String name = f.getName().toLowerCase(Locale.ROOT);
+                if (name.endsWith(".m3u") || name.endsWith(".m3u8")) {
+                    entries.addAll(Playlist.read(f.toPath()));
+                } else {
+                    entries.add(new Playlist.Entry(f, null));
+                }
+            }
+            if (entries.isEmpty()) return;
+            closePlaylist();
+            playlist = new Playlist(midiEngine, entries);
+            playlist.setListener(new Playlist.Listener() {
+                @Override
+                public void trackChanged(int index, Playlist.Entry entry) {
+                    SwingUtilities.invokeLater(() -> {
+                        currentMidiFile = entry.midi();
+                        status(MessageFormat.format(msgs.getString("status.playlistTrack"), entry.midi().getName(),
+                                index + 1, entries.size()));
+                    });
+                }
+
+                @Override
+                public void finished() {
+                    SwingUtilities.invokeLater(() -> status(msgs.getString("status.playlistFinished")));
+                }
+
+                @Override
+                public void failed(Playlist.Entry entry, Exception ex) {
+                    SwingUtilities.invokeLater(() -> error(MessageFormat.format(msgs.getString("error.loadMidi"),
+                            entry.midi().getName() + ": " + rootMessage(ex))));
+                }
+            });
+            playlist.play(0);
+        } catch (Exception ex) {
+            error(MessageFormat.format(msgs.getString("error.loadPlaylist"), rootMessage(ex)));
+        }
+    }
+
+    private void playlistStep(boolean forward) {
+        if (playlist == null) return;
+        try {
+            if (forward) {
+                playlist.next();
+            } else {
+                playlist.previous();
+            }
+        } catch (Exception ex) {
+            error(MessageFormat.format(msgs.getString("error.loadMidi"), rootMessage(ex)));
+        }
+    }
+
+    private void closePlaylist() {
+        if (playlist != null) {
+            playlist.close();
+            playlist = null;
+        }
+    }
+
+    private void openSf2(ActionEvent e) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(msgs.getString("dialog.chooseSf2"));
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(msgs.getString("filter.sf2"), "sf2"));
+        int res = chooser.showOpenDialog(this);
+        if (res == JFileChooser.APPROVE_OPTION) {
+            File sf2 = chooser.getSelectedFile();
+            try {
+                midiEngine.loadSf2(sf2);
+                status(MessageFormat.format(msgs.getString("status.loadedSf2"), sf2.getName()));
+            } catch (Exception ex) {
+                error(MessageFormat.format(msgs.getString("error.loadSf2"), ex.getMessage()));
+            }
+        }
+    }
+
+    // Visuals are delayed by the output latency; automatic uses what the synth reports
+    private void editOutputLatency() {
+        DeviceOption current = midiEngine.getOutputDevice();
+        Long override = latencyOverrides.get(current.getDisplayName());
+        String input = (String) JOptionPane.showInputDialog(this,
+                MessageFormat.format(msgs.getString("dialog.outputLatency"), current.getDisplayName(),
+                        midiEngine.getOutputLatencyMicros() / 1000),
+                msgs.getString("menu.outputLatency"), JOptionPane.PLAIN_MESSAGE, null, null,
+                override != null ? String.valueOf(override / 1000) : "");
+        if (input == null) return;
+        try {
+            long micros = input.isBlank() ? DeviceOption.AUTO_LATENCY : Math.max(0, Long.parseLong(input.trim())) * 1000;
+            if (micros == DeviceOption.AUTO_LATENCY) {
+                latencyOverrides.remove(current.getDisplayName());
+            } else {
+                latencyOverrides.put(current.getDisplayName(), micros);
+            }
+            midiEngine.setOutputLatency(micros);
+            status(MessageFormat.format(msgs.getString("status.outputSet"), current.getDisplayName(),
+                    midiEngine.getOutputLatencyMicros() / 1000));
+        } catch (NumberFormatException ex) {
+            error(MessageFormat.format(msgs.getString("error.outputLatency"), input));
+        }
+    }
+
+    // Times note-ons on the software synth off the EDT, then offers the result as the visual delay
+    private void measureOutputLatency() {
+        DeviceOption current = midiEngine.getOutputDevice();
+        status(msgs.getString("status.measuringLatency"));
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return midiEngine.measureOutputLatency(8);
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }).whenComplete((res, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                error(MessageFormat.format(msgs.getString("error.measureLatency"), rootMessage(ex)));
+                return;
+            }
+            if (res.timed() == 0) {
+                error(MessageFormat.format(msgs.getString("error.measureLatency"), msgs.getString("error.noOnset")));
+                return;
+            }
+            int choice = JOptionPane.showConfirmDialog(this, MessageFormat.format(msgs.getString("dialog.latencyResult"),
+                            res.medianMicros() / 1000, res.minMicros() / 1000, res.maxMicros() / 1000, res.timed(),
+                            res.probes(), res.bufferMicros() / 1000, res.underruns()),
+                    msgs.getString("menu.measureLatency"), JOptionPane.YES_NO_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                latencyOverrides.put(current.getDisplayName(), res.medianMicros());
+                midiEngine.setOutputLatency(res.medianMicros());
+            }
+            status(MessageFormat.format(msgs.getString("status.outputSet"), current.getDisplayName(),
+                    midiEngine.getOutputLatencyMicros() / 1000));
+        }));
+    }
+
+    private void play() {
+        try {
+            midiEngine.play();
+            status(MessageFormat.format(msgs.getString("status.playing"), (currentMidiFile != null ? (": " + currentMidiFile.getName()) : "")));
+        } catch (Exception ex) {
+            error("Play failed: " + ex.getMessage());
+        }
+    }
+
+    private void pause() {
+        try {
+            midiEngine.pause();
+            status(msgs.getString("status.paused"));
+        } catch (Exception ex) {
+            error("Pause failed: " + ex.getMessage());
+        }
+    }
+
+    private void stop() {
+        try {
+            midiEngine.stop();
+            status(msgs.getString("status.stopped"));
+        } catch (Exception ex) {
+            error("Stop failed: " + ex.getMessage());
+        }
+    }
+
+    private void status(String text) {
+        statusLabel.setText(text);
+    }
+
+    private void error(String text) {
+        statusLabel.setText(text);
+        JOptionPane.showMessageDialog(this, text, msgs.getString("error.title"), JOptionPane.ERROR_MESSAGE);
+    }
+
+    private void refreshDevices() {
+        DefaultComboBoxModel<DeviceOption> model = new DefaultComboBoxModel<>(listDevices().toArray(new DeviceOption[0]));
+        deviceCombo.setModel(model);
+        deviceCombo.setSelectedIndex(0);
+    }
+
+    // Fills the combo without re-opening the output the engine already selected
+    private void setDeviceOptions(List<DeviceOption> options) {
+        updatingDevices = true;
+        try {
+            deviceCombo.setModel(new DefaultComboBoxModel<>(options.toArray(new DeviceOption[0])));
+            deviceCombo.setSelectedIndex(0);
+        } finally {
+            updatingDevices = false;
+        }
+    }
+
+    private static List<DeviceOption> listDevices() {
+        List<DeviceOption> options = new ArrayList<>();
+        options.add(DeviceOption.softwareSynth());
+        MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
+        for (MidiDevice.Info info : infos) {
+            try {
+                MidiDevice dev = MidiSystem.getMidiDevice(info);
+                if (dev.getMaxReceivers() != 0) {
+                    options.add(DeviceOption.hardware(info));
+                }
+            } catch (Exception ignore) {
+            }
+        }
+        return options;
+    }
+
+    // Container that lays out channel panels (waveform or bar graph).
+    // Rows are virtualized: only channels inside the scroll viewport have a panel, so only those are
+    // painted and analyzed, and a 256-channel multi-port file costs about the same as 16 channels.
+    private static class ChannelsPanel extends JPanel implements Scrollable {
+        private static final int ROW_HEIGHT = 120;
+        private static final int ROW_GAP = 2;
+        private static final int FRAME_MILLIS = 16;
+        private final MidiVisualizer visualizer;
+        private final ChannelAnalyzer analyzer;
+        private final Map<Integer, ChannelPanel> rows = new HashMap<>();
+        private final DetailGovernor governor = new DetailGovernor();
+        private long lastTick;
+        private ViewMode mode = ViewMode.WAVEFORM;
+        private int channelCount;
+        private int firstRow = 0;
+        private int lastRow = -1;
+
+        public ChannelsPanel(MidiVisualizer visualizer, ChannelAnalyzer analyzer) {
+            super(null);
+            this.visualizer = visualizer;
+            this.analyzer = analyzer;
+            this.channelCount = visualizer.getChannelCount();
+            setBackground(Color.DARK_GRAY);
+            Timer t = new Timer(FRAME_MILLIS, e -> tick());
+            t.start();
+        }
+
+        public void setMode(ViewMode mode) {
+            if (this.mode == mode) return;
+            this.mode = mode;
+            rebuild();
+        }
+
+        public ViewMode getMode() {
+            return this.mode;
+        }
+
+        private void tick() {
+            long start = System.nanoTime();
+            if (visualizer.getChannelCount() != channelCount) {
+                channelCount = visualizer.getChannelCount();
+                rebuild();
+            }
+            // one analysis job per tick for the visible rows, sized for what the current view draws
+            int samples = 1;
+            boolean bands = false;
+            boolean waveform = false;
+            for (ChannelPanel panel : rows.values()) {
+                samples = Math.max(samples, panel.requiredSamples());
+                bands |= panel.needsBands();
+                waveform |= panel.needsWaveform();
+            }
+            analyzer.configure(samples, bands, waveform);
+            analyzer.tick(firstRow, lastRow);
+            // this frame's work: the analysis plus the row paints since the last tick; a timer that fired
+            // far behind means the event thread was busy for longer still
+            long work = System.nanoTime() - start;
+            for (ChannelPanel panel : rows.values()) work += panel.takePaintNanos();
+            long late = lastTick != 0 ? start - lastTick - FRAME_MILLIS * 1_000_000L : 0;
+            lastTick = start;
+            if (governor.frame(Math.max(work, late))) {
+                for (ChannelPanel panel : rows.values()) panel.setDetail(governor.getDetail());
+            }
+            // only rows whose channel changed or is still animating are repainted; silence costs nothing
+            for (ChannelPanel panel : rows.values()) {
+                if (panel.needsRepaint()) panel.repaint();
+            }
+        }
+
+        private void rebuild() {
+            removeAll();
+            rows.clear();
+            revalidate();
+            repaint();
+        }
+
+        @Override
+        public void addNotify() {
+            super.addNotify();
+            if (getParent() instanceof JViewport viewport) {
+                viewport.addChangeListener(e -> syncVisibleRows());
+            }
+        }
+
+        @Override
+        public void doLayout() {
+            syncVisibleRows();
+        }
+
+        // Creates panels for rows that scrolled into view and drops the ones that left it
+        private void syncVisibleRows() {
+            Rectangle visible = getVisibleRect();
+            int stride = ROW_HEIGHT + ROW_GAP;
+            int first = Math.max(0, visible.y / stride);
+            int last = Math.min(channelCount - 1, (visible.y + visible.height) / stride);
+            firstRow = first;
+            lastRow = last;
+            boolean changed = rows.keySet().removeIf(ch -> {
+                if (ch >= first && ch <= last) return false;
+                remove(rows.get(ch));
+                return true;
+            });
+            for (int ch = first; ch <= last; ch++) {
+                ChannelPanel panel = rows.get(ch);
+                if (panel == null) {
+                    panel = switch (mode) {
+                        case WAVEFORM -> new WaveformPanel(visualizer, ch);
+                        case BARS -> new BarGraphPanel(visualizer, ch);
+                        case WMP -> new WMPSpectrumPanel(visualizer, ch);
+                        case SC88 -> new SC88ProPanel(visualizer, ch);
+                    };
+                    panel.setDetail(governor.getDetail());
+                    rows.put(ch, panel);
+                    add(panel);
+                    changed = true;
+                }
+                panel.setBounds(0, ch * stride, getWidth(), ROW_HEIGHT);
+            }
+            if (changed) {
+                revalidate();
+                repaint();
+            }
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(1100, channelCount * (ROW_HEIGHT + ROW_GAP));
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? ROW_HEIGHT / 4 : 16;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package cn.moerain.visualmidi;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * A simple spectrum-style visualization inspired by classic Windows Media Player bars.
+ * It renders a set of vertical bands with peak hold and smooth decay per channel.
+ * Note: The band levels are a pseudo-spectrum that {@link ChannelAnalyzer} computes from the
+ * recent waveform buffer with a small bank of rectified windows (cheap approximation, not a real FFT).
+ */
+public class WMPSpectrumPanel extends ChannelPanel {
+    // number of bands
+    private static final int BANDS = ChannelAnalyzer.BANDS;
+    private final float[] levels = new float[BANDS];
+    private final float[] peaks = new float[BANDS];
+
+    public WMPSpectrumPanel(MidiVisualizer visualizer, int channel) {
+        super(visualizer, channel);
+        setPreferredSize(new Dimension(1000, 110));
+        setBackground(new Color(20, 20, 20));
+    }
+
+    @Override
+    public int requiredSamples() {
+        return Math.max(512, getWidth());
+    }
+
+    @Override
+    public boolean needsBands() {
+        return true;
+    }
+
+    @Override
+    public boolean needsRepaint() {
+        if (super.needsRepaint()) return true;
+        // keep animating until the bars and peak markers have fallen back to the floor
+        for (int b = 0; b < BANDS; b++) {
+            if (levels[b] > 0.002f || peaks[b] > 0.002f) return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g.create();
+        int w = getWidth();
+        int h = getHeight();
+
+        // Title
+        g2.setColor(Color.WHITE);
+        g2.setFont(g2.getFont().deriveFont(Font.BOLD, 12f));
+        g2.drawString(title(), 8, 16);
+
+        // Band levels come from the channel analyzer (computed over max(512, w) samples)
+        float[] bands = frame.bands();
+        if (bands != null && bands.length == BANDS) {
+            for (int b = 0; b < BANDS; b++) {
+                float level = bands[b];
+                // smooth with attack/decay
+                float prev = levels[b];
+                float a = 0.4f; // attack
+                float d = 0.08f; // decay
+                float target = Math.max(level, prev * (1 - d));
+                levels[b] = prev + a * (target - prev);
+                // peak hold with slow fall
+                peaks[b] = Math.max(peaks[b] * 0.96f, levels[b]);
+            }
+        } else {
+            // decay when no data
+            for (int b = 0; b < BANDS; b++) {
+                levels[b] *= 0.9f;
+                peaks[b] *= 0.96f;
+            }
+        }
+
+        // below full detail neighbouring bands are drawn as one bar (their loudest), flat-filled
+        int group = switch (detail) {
+            case FULL -> 1;
+            case REDUCED -> 2;
+            case MINIMAL -> 4;
+        };
+        int drawn = BANDS / group;
+        int top = 22;
+        int bottomPadding = 8;
+        int availH = h - top - bottomPadding;
+        int gap = 4;
+        int bandWidth = Math.max(6, (w - 16 - (drawn - 1) * gap) / drawn);
+        int x = 8;
+
+        // background grid lines
+        if (detail != Detail.MINIMAL) {
+            g2.setColor(new Color(45,45,45));
+            for (int i = 0; i <= 5; i++) {
+                int yy = top + (availH * i / 5);
+                g2.drawLine(8, yy, w - 8, yy);
+            }
+        }
+
+        // Colors
+        Color base = Color.getHSBColor((channel % MidiVisualizer.CHANNELS_PER_PORT) / 16f, 0.7f, 0.95f);
+        for (int b = 0; b < drawn; b++) {
+            float level = 0, peak = 0;
+            for (int i = b * group; i < (b + 1) * group; i++) {
+                level = Math.max(level, levels[i]);
+                peak = Math.max(peak, peaks[i]);
+            }
+            float lv = clamp(level, 0f, 1f);
+            int bh = Math.max(2, Math.round(availH * lv));
+            int y = top + (availH - bh);
+
+            if (detail == Detail.FULL) {
+                // gradient bar
+                GradientPaint gp = new GradientPaint(x, y, base.brighter(), x, y + bh, base.darker());
+                g2.setPaint(gp);
+                g2.fillRoundRect(x, y, bandWidth, bh, 4, 4);
+            } else {
+                g2.setColor(base);
+                g2.fillRect(x, y, bandWidth, bh);
+            }
+
+            // peak marker
+            int ph = Math.max(2, Math.round(availH * clamp(peak, 0f, 1f)));
+            int py = top + (availH - ph);
+            g2.setColor(new Color(255, 255, 255, 180));
+            g2.fillRect(x, py, bandWidth, 2);
+
+            x += bandWidth + gap;
+        }
+
+        g2.dispose();
+    }
+
+    private static float clamp(float v, float lo, float hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+}
@@ -0,0 +1,71 @@
+package cn.moerain.visualmidi;
+
+import javax.swing.*;
+import java.awt.*;
+
+public class WaveformPanel extends ChannelPanel {
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    public WaveformPanel(MidiVisualizer visualizer, int channel) {
+        super(visualizer, channel);
+        setPreferredSize(new Dimension(1000, 110));
+        setBackground(new Color(30, 30, 30));
+    }
+
+    @Override
+    public boolean needsWaveform() {
+        return true;
+    }
+
+    @Override
+    public int requiredSamples() {
+        return getWidth();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g.create();
+        int w = getWidth();
+        int h = getHeight();
+
+        // background grid
+        if (detail != Detail.MINIMAL) {
+            g2.setColor(new Color(50,50,50));
+            for (int i=0;i<10;i++) {
+                int y = i * h / 10;
+                g2.drawLine(0, y, w, y);
+            }
+        }
+
+        // title (instrument name)
+        g2.setColor(Color.WHITE);
+        g2.setFont(g2.getFont().deriveFont(Font.BOLD, 12f));
+        g2.drawString(title(), 8, 16);
+
+        // waveform, one point per pixel at full detail, every 2nd or 4th pixel when decimated
+        float[] wf = frame.waveform();
+        int mid = h/2;
+        int step = switch (detail) {
+            case FULL -> 1;
+            case REDUCED -> 2;
+            case MINIMAL -> 4;
+        };
+        int points = w > 0 ? (w - 1) / step + 1 : 0;
+        if (xs.length < points) {
+            xs = new int[points];
+            ys = new int[points];
+        }
+        for (int i=0; i<points; i++) {
+            int x = i * step;
+            float s = wf.length>0 ? wf[Math.min(x, wf.length-1)] : 0f;
+            xs[i] = x;
+            ys[i] = mid - (int)(s * (h/2 - 20));
+        }
+        g2.setColor(new Color(0x55FF77));
+        g2.drawPolyline(xs, ys, points);
+
+        g2.dispose();
+    }
+}
@@ -0,0 +1,33 @@
+package cn.moerain.visualmidi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderLatencyHarnessTest {
+    // Every view has to show each probe note; how fast is the harness's own report, not a unit test's
+    @Test
+    void everyViewShowsEveryNote() throws Exception {
+        for (String view : RenderLatencyHarness.VIEWS.keySet()) {
+            RenderLatencyHarness.ViewResult r = RenderLatencyHarness.run(view, RenderLatencyHarness.VIEWS.get(view),
+                    ChannelPanel.Detail.FULL, 5, 62.5, 0);
+            assertEquals(5, r.timed(), view + " missed notes");
+            assertTrue(r.p50() > 0 && r.max() < 1000, view + " latency " + r.p50() + ".." + r.max() + " ms");
+        }
+    }
+
+    @Test
+    @Timeout(60) // a probe that never shows has to time out, not hang
+    void aViewThatNeverRepaintsIsReportedAsAMiss() throws Exception {
+        RenderLatencyHarness.ViewResult r = RenderLatencyHarness.run("stale", (vis, ch) -> new WaveformPanel(vis, ch) {
+            @Override
+            public boolean needsRepaint() {
+                return false;
+            }
+        }, ChannelPanel.Detail.FULL, 2, 62.5, 0);
+        assertEquals(0, r.timed());
+        assertEquals(2, r.events());
+    }
+}